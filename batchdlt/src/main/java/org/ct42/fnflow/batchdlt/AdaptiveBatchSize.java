@@ -0,0 +1,58 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlt;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batch size adapted to the observed latency of a batch function in AIMD style.
+ * If a batch call took longer than the latency goal, the size is halved, otherwise it is increased by a fixed step,
+ * staying within the configured minimum and maximum size.
+ *
+ * @author Claas Thiele
+ */
+public class AdaptiveBatchSize {
+    private final int minSize;
+    private final int maxSize;
+    private final int step;
+    private final long latencyGoalNanos;
+    private final AtomicInteger current;
+
+    public AdaptiveBatchSize(int minSize, int maxSize, long latencyGoalMs) {
+        this.minSize = Math.max(1, Math.min(minSize, maxSize));
+        this.maxSize = maxSize;
+        this.step = Math.max(1, maxSize / 16);
+        this.latencyGoalNanos = latencyGoalMs * 1_000_000L;
+        this.current = new AtomicInteger(maxSize);
+    }
+
+    public int get() {
+        return current.get();
+    }
+
+    /**
+     * Adapts the size to the duration of a batch call.
+     */
+    public void observe(long durationNanos) {
+        if(durationNanos > latencyGoalNanos) {
+            current.updateAndGet(s -> Math.max(minSize, s / 2));
+        } else {
+            current.updateAndGet(s -> Math.min(maxSize, s + step));
+        }
+    }
+
+}
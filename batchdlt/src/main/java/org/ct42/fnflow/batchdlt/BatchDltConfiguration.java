@@ -16,6 +16,11 @@
 
 package org.ct42.fnflow.batchdlt;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
@@ -24,13 +29,24 @@ import org.springframework.context.annotation.Bean;
  * Create a composed function bean composing all functional beans of type
  * - Function&lt;JsonNode, JsonNode&gt; and
  * - Function&lt;List&lt;BatchElement&gt;, List&lt;BatchElement&gt;&gt;
+ * Metrics are registered with the application's MeterRegistry if there is one, e.g. provided by the actuator.
+ * Sampled messages are observed with the application's ObservationRegistry if there is one.
+ * The AOT processor is precomputing the function bean kinds for native images.
  *
  * @author Claas Thiele
  */
 @AutoConfiguration
+@RegisterReflectionForBinding(BatchProperties.class)
 public class BatchDltConfiguration {
     @Bean
-    ComposedFunction fnFlowComposedFnBean(ApplicationContext applicationContext) {
-        return new ComposedFunction(applicationContext);
+    ComposedFunction fnFlowComposedFnBean(ApplicationContext applicationContext, ObjectProvider<MeterRegistry> meterRegistry,
+                                          ObjectProvider<ObservationRegistry> observationRegistry) {
+        return new ComposedFunction(applicationContext, meterRegistry.getIfAvailable(() -> Metrics.globalRegistry),
+                observationRegistry.getIfAvailable(() -> ObservationRegistry.NOOP));
+    }
+
+    @Bean
+    static ComposedFunctionAotProcessor composedFunctionAotProcessor() {
+        return new ComposedFunctionAotProcessor();
     }
 }
@@ -16,62 +16,290 @@
 
 package org.ct42.fnflow.batchdlt;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import org.springframework.messaging.Message;
-import org.springframework.messaging.support.MessageBuilder;
+import io.micrometer.observation.Observation;
+import org.ct42.fnflow.fnapi.NonMutating;
+import org.springframework.kafka.support.KafkaHeaders;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.Sinks;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.nio.ByteBuffer;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Wrapper function for functions of type Function&lt;List&lt;BatchElement&gt;, List&lt;BatchElement&gt;&gt;.
  * Organizes a buffer to pass a batch to the target function.
- * Is mapping the input from Message and the result back to Message.
+ * Is mapping the input from the envelope and the result back to the envelope.
+ * Elements with an invalid Json payload are sent to the error channel without failing the rest of the batch.
+ * With a concurrency greater than 1, that many batches are processed at the same time on the bounded elastic scheduler.
+ * The results are emitted in the order of the batches.
+ * Messages not matching the guard of the stage bypass the function, keeping their position.
+ * A bypassing message flushes the batch buffered before, so it is not waiting for the batch to be filled.
+ * In adaptive mode, a batch is flushed as soon as it reached the size adapted to the latency of the target function.
+ * With coalescing enabled, only the last message per Kafka key of the buffered messages is processed,
+ * the superseded messages are dropped. Messages without key are always processed.
+ * For sampled messages, the time waiting for the batch and the batch call are observed, tagged with the batch id.
+ * {@link NonBlocking} functions are called without blocking a thread, with up to <code>concurrency</code> batch calls in flight.
+ * Elements the batch function returned no result for are sent to the error channel.
  *
  * @author Claas Thiele
  */
-public class BatchFnWrapper implements BiFunction<Flux<Message<JsonNode>>, Sinks.Many<Message<Throwable>>, Flux<Message<JsonNode>>> {
+public class BatchFnWrapper implements BiFunction<Flux<Envelope>, ErrorChannel, Flux<Envelope>> {
         public final int defaultBatchSize;
         public final Duration defaultBatchTimeout;
+        public final int concurrency;
+        public final boolean coalesce;
 
         private final Function<List<BatchElement>, List<BatchElement>> target;
+        private final AdaptiveBatchSize adaptiveSize;
+        private final StagePredicate guard;
+        private final StageMetrics metrics;
+        private final BatchMetrics batchMetrics;
+        private final AtomicLong batchIds = new AtomicLong();
 
-        public BatchFnWrapper(Function<List<BatchElement>, List<BatchElement>> target, int defaultBatchSize, long defaultBatchTimeout) {
-            this.defaultBatchSize = defaultBatchSize;
-            this.defaultBatchTimeout = Duration.ofMillis(defaultBatchTimeout);
+        public BatchFnWrapper(Function<List<BatchElement>, List<BatchElement>> target, BatchProperties properties,
+                              StageMetrics metrics, BatchMetrics batchMetrics) {
+            this(target, properties, metrics, batchMetrics, StagePredicate.ALWAYS);
+        }
+
+        public BatchFnWrapper(Function<List<BatchElement>, List<BatchElement>> target, BatchProperties properties,
+                              StageMetrics metrics, BatchMetrics batchMetrics, StagePredicate guard) {
+            this.defaultBatchSize = properties.getSize();
+            this.defaultBatchTimeout = Duration.ofMillis(properties.getTimeoutms());
+            this.concurrency = properties.getConcurrency();
+            this.coalesce = properties.isCoalesce();
             this.target = target;
+            this.metrics = metrics;
+            this.batchMetrics = batchMetrics;
+            this.guard = guard;
+            if(properties.isAdaptive()) {
+                adaptiveSize = new AdaptiveBatchSize(properties.getMinSize(), properties.getSize(), properties.getLatencyGoalMs());
+                batchMetrics.adaptiveSize(adaptiveSize);
+            } else {
+                adaptiveSize = null;
+            }
         }
 
         @Override
-        public Flux<Message<JsonNode>> apply(Flux<Message<JsonNode>> messageFlux, Sinks.Many<Message<Throwable>> error) {
-            return messageFlux.bufferTimeout(defaultBatchSize, defaultBatchTimeout).flatMapSequential(b -> {
-                List<BatchElement> results = target.apply(b.stream().map(e -> new BatchElement(e.getPayload())).toList());
-                List<Message<JsonNode>> resultMsgs = new ArrayList<>();
-                for(int i = 0; i < results.size(); i++) {
-                    BatchElement result = results.get(i);
-                    if(result.getOutput() != null) {
-                        MessageBuilder<JsonNode> builder = MessageBuilder
-                            .withPayload(result.getOutput())
-                            .copyHeaders(b.get(i).getHeaders());
-                        if(target instanceof HeaderAware headerAware) {
-                            headerAware.headersToBeAdded(result.getInput())
-                                .forEach(builder::setHeader);
-                        }
-                        Message<JsonNode> msg = builder.build();
-                        resultMsgs.add(msg);
-                    } else if (result.getError() != null) {
-                        error.tryEmitNext(MessageBuilder
-                                .withPayload(result.getError())
-                                .copyHeaders(b.get(i).getHeaders())
-                                .build());
+        public Flux<Envelope> apply(Flux<Envelope> envelopeFlux, ErrorChannel error) {
+            Flux<List<Envelope>> batches;
+            if(adaptiveSize != null || guard != StagePredicate.ALWAYS) {
+                // the timeout is started by the first message of a window, shared by the batches the window is cut into
+                batches = envelopeFlux.doOnNext(this::startWaiting).windowTimeout(defaultBatchSize, defaultBatchTimeout)
+                        .concatMap(window -> window.bufferUntil(flush()))
+                        .doOnNext(b -> batchMetrics.flushed(b.size(), batchSize()));
+            } else {
+                batches = envelopeFlux.doOnNext(this::startWaiting).bufferTimeout(defaultBatchSize, defaultBatchTimeout)
+                        .doOnNext(b -> batchMetrics.flushed(b.size(), defaultBatchSize));
+            }
+            if(coalesce) {
+                batches = batches.map(this::coalesce);
+            }
+            if(target instanceof NonBlocking nonBlocking) {
+                return batches.flatMapSequential(b -> {
+                    Batch batch = prepare(b, error);
+                    if(batch.elements.isEmpty()) {
+                        return Flux.fromIterable(finish(batch, List.of(), error));
+                    }
+                    return Mono.fromFuture(() -> nonBlocking.applyAsync(batch.elements))
+                            .onErrorResume(e -> Mono.fromCallable(() -> failed(batch.elements, e)))
+                            .publishOn(Schedulers.boundedElastic()) // not continuing on the thread completing the call
+                            .flatMapIterable(results -> finish(batch, results, error));
+                }, Math.max(concurrency, 1));
+            }
+            if(concurrency <= 1) {
+                return batches.flatMapSequential(b -> Flux.fromIterable(process(b, error)));
+            }
+            return batches.flatMapSequential(b -> Mono.fromCallable(() -> process(b, error))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .flatMapIterable(Function.identity()), concurrency);
+        }
+
+        /**
+         * @return the predicate flushing the batch with the message passed, one per window:
+         * if the batch reached the current size or if the message bypasses the function
+         */
+        private Predicate<Envelope> flush() {
+            int[] count = new int[1];
+            return envelope -> {
+                if(++count[0] < batchSize() && !bypasses(envelope)) {
+                    return false;
+                }
+                count[0] = 0;
+                return true;
+            };
+        }
+
+        private int batchSize() {
+            return adaptiveSize == null ? defaultBatchSize : adaptiveSize.get();
+        }
+
+        /**
+         * @return <code>true</code> if the message does not match the guard or the guard fails,
+         * the guard is applied again when the batch is prepared
+         */
+        private boolean bypasses(Envelope envelope) {
+            try {
+                return !guard.test(envelope);
+            } catch (RuntimeException e) {
+                return true;
+            }
+        }
+
+        private static List<BatchElement> failed(List<BatchElement> elements, Throwable e) {
+            elements.forEach(element -> element.processWithError(e));
+            return elements;
+        }
+
+        private void startWaiting(Envelope envelope) {
+            if(envelope.getObservation() != null) {
+                envelope.setPendingStage(metrics.observe(envelope, "batch-wait"));
+            }
+        }
+
+        /**
+         * @return the messages of the batch without the messages superseded by a later message with the same key
+         */
+        private List<Envelope> coalesce(List<Envelope> b) {
+            Object[] keys = new Object[b.size()];
+            Map<Object, Integer> last = new HashMap<>();
+            int keyed = 0;
+            for(int pos = 0; pos < b.size(); pos++) {
+                Object key = b.get(pos).getOriginal().getHeaders().get(KafkaHeaders.RECEIVED_KEY);
+                if(key != null) {
+                    keys[pos] = key instanceof byte[] bytes ? ByteBuffer.wrap(bytes) : key;
+                    last.put(keys[pos], pos);
+                    keyed++;
+                }
+            }
+            if(last.size() == keyed) {
+                return b;
+            }
+            List<Envelope> coalesced = new ArrayList<>(b.size() - keyed + last.size());
+            for(int pos = 0; pos < b.size(); pos++) {
+                if(keys[pos] == null || last.get(keys[pos]) == pos) {
+                    coalesced.add(b.get(pos));
+                } else {
+                    b.get(pos).discard();
+                }
+            }
+            batchMetrics.coalesced(b.size() - coalesced.size());
+            return coalesced;
+        }
+
+        private List<Envelope> process(List<Envelope> b, ErrorChannel error) {
+            Batch batch = prepare(b, error);
+            List<BatchElement> results = batch.elements.isEmpty() ? List.of() : target.apply(batch.elements);
+            return finish(batch, results, error);
+        }
+
+        /**
+         * Maps the messages of the batch to the elements to be passed to the target function.
+         */
+        private Batch prepare(List<Envelope> b, ErrorChannel error) {
+            Batch batch = new Batch(b);
+            long batchId = batchIds.incrementAndGet();
+            for(int pos = 0; pos < b.size(); pos++) {
+                Envelope envelope = b.get(pos);
+                if(envelope.getPendingStage() != null) {
+                    envelope.getPendingStage().stop();
+                    envelope.setPendingStage(null);
+                }
+                if(!guard.testOrFail(envelope, metrics, error)) {
+                    if(envelope.getError() == null) batch.out[pos] = envelope;
+                    continue;
+                }
+                try {
+                    batch.elements.add(new BatchElement(envelope.getPayload().getNode()));
+                    batch.positions.add(pos);
+                    if(envelope.getObservation() != null) {
+                        if(batch.calls == null) batch.calls = new Observation[b.size()];
+                        batch.calls[pos] = metrics.observe(envelope, "batch").highCardinalityKeyValue("batch.id", Long.toString(batchId));
                     }
+                } catch (IllegalStateException e) { // invalid Json, the other elements of the batch are processed anyway
+                    metrics.failed(1);
+                    error.emit(envelope.failed(e));
                 }
-                return Flux.fromIterable(resultMsgs);
-            });
+            }
+            batch.start = System.nanoTime();
+            return batch;
+        }
+
+        /**
+         * Maps the results of the target function back to the messages of the batch.
+         *
+         * @return the resulting messages in the order of the batch
+         */
+        private List<Envelope> finish(Batch batch, List<BatchElement> results, ErrorChannel error) {
+            List<Envelope> b = batch.envelopes;
+            if(!batch.elements.isEmpty()) {
+                metrics.record(batch.start, batch.elements.size());
+                if(adaptiveSize != null) {
+                    adaptiveSize.observe(System.nanoTime() - batch.start);
+                }
+            }
+            for(int i = 0; i < batch.positions.size(); i++) {
+                int pos = batch.positions.get(i);
+                Envelope envelope = b.get(pos);
+                if(i >= results.size()) { // failed, so the message is released
+                    IllegalStateException missing = new IllegalStateException(
+                            "Batch function returned " + results.size() + " of " + batch.positions.size() + " results");
+                    if(batch.calls != null && batch.calls[pos] != null) batch.calls[pos].error(missing);
+                    metrics.failed(1);
+                    error.emit(envelope.failed(missing));
+                    continue;
+                }
+                BatchElement result = results.get(i);
+                if(result.getOutput() != null) {
+                    envelope.setPayload(envelope.getPayload().withResult(result.getOutput(), target instanceof NonMutating));
+                    if(target instanceof HeaderAware headerAware) {
+                        envelope.addHeaders(headerAware.headersToBeAdded(result.getInput()));
+                    }
+                    batch.out[pos] = envelope;
+                } else if (result.getError() != null) {
+                    if(batch.calls != null && batch.calls[pos] != null) batch.calls[pos].error(result.getError());
+                    metrics.failed(1);
+                    error.emit(envelope.failed(result.getError()));
+                } else {
+                    envelope.discard();
+                }
+            }
+            if(batch.calls != null) {
+                for(Observation call : batch.calls) {
+                    if(call != null) call.stop();
+                }
+            }
+            List<Envelope> resultEnvelopes = new ArrayList<>(batch.out.length);
+            for(Envelope envelope : batch.out) {
+                if(envelope != null) resultEnvelopes.add(envelope);
+            }
+            return resultEnvelopes;
+        }
+
+        /**
+         * A batch between preparing the elements and mapping back the results.
+         */
+        private static final class Batch {
+            private final List<Envelope> envelopes;
+            private final Envelope[] out; // keeps the position of messages bypassing the function
+            private final List<Integer> positions;
+            private final List<BatchElement> elements;
+            private Observation[] calls;
+            private long start;
+
+            private Batch(List<Envelope> envelopes) {
+                this.envelopes = envelopes;
+                this.out = new Envelope[envelopes.size()];
+                this.positions = new ArrayList<>(envelopes.size());
+                this.elements = new ArrayList<>(envelopes.size());
+            }
         }
     }
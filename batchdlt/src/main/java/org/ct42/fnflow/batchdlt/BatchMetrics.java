@@ -0,0 +1,100 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlt;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * Meters about the batches formed for one batch function.
+ *
+ * @author Claas Thiele
+ */
+public class BatchMetrics {
+    public static final String SIZE = "fnflow.batch.size";
+    public static final String FILL_RATIO = "fnflow.batch.fill.ratio";
+    public static final String FLUSHES = "fnflow.batch.flushes";
+    public static final String ADAPTIVE_SIZE = "fnflow.batch.adaptive.size";
+    public static final String COALESCED = "fnflow.batch.coalesced";
+
+    private final MeterRegistry registry;
+    private final Tags tags;
+    private final DistributionSummary size;
+    private final DistributionSummary fillRatio;
+    private final Counter flushesBySize;
+    private final Counter flushesByTimeout;
+    private final Counter coalesced;
+
+    public BatchMetrics(MeterRegistry registry, String function, String type) {
+        this.registry = registry;
+        this.tags = StageMetrics.tags(function, type);
+        size = DistributionSummary.builder(SIZE)
+                .description("Number of messages per batch")
+                .tags(tags)
+                .register(registry);
+        fillRatio = DistributionSummary.builder(FILL_RATIO)
+                .description("Batch size in relation to the maximum batch size")
+                .tags(tags)
+                .register(registry);
+        flushesBySize = Counter.builder(FLUSHES)
+                .description("Batches passed to the function")
+                .tags(tags.and("trigger", "size"))
+                .register(registry);
+        flushesByTimeout = Counter.builder(FLUSHES)
+                .description("Batches passed to the function")
+                .tags(tags.and("trigger", "timeout"))
+                .register(registry);
+        coalesced = Counter.builder(COALESCED)
+                .description("Messages superseded by a later message with the same key in the batch")
+                .tags(tags)
+                .register(registry);
+    }
+
+    /**
+     * Registers a gauge for the current size of an adaptive batch size.
+     */
+    public void adaptiveSize(AdaptiveBatchSize adaptiveSize) {
+        Gauge.builder(ADAPTIVE_SIZE, adaptiveSize, AdaptiveBatchSize::get)
+                .description("Current maximum batch size adapted to the function latency")
+                .tags(tags)
+                .register(registry);
+    }
+
+    /**
+     * Records a batch being passed to the function.
+     * A batch smaller than the maximum size has been flushed by the timeout or by a message bypassing the function.
+     */
+    public void flushed(int batchSize, int maxBatchSize) {
+        size.record(batchSize);
+        fillRatio.record((double) batchSize / maxBatchSize);
+        if(batchSize >= maxBatchSize) {
+            flushesBySize.increment();
+        } else {
+            flushesByTimeout.increment();
+        }
+    }
+
+    /**
+     * Records messages dropped from a batch, superseded by a later message with the same key.
+     */
+    public void coalesced(int count) {
+        coalesced.increment(count);
+    }
+}
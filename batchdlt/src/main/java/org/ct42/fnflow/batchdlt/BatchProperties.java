@@ -0,0 +1,47 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlt;
+
+import lombok.Data;
+
+/**
+ * Batching configuration of a batch function.
+ * Defaults are bound from <code>org.ct42.fnflow.default.batch</code>,
+ * overridden per function from <code>org.ct42.fnflow.batch.&lt;function bean name&gt;</code>.
+ *
+ * @author Claas Thiele
+ */
+@Data
+public class BatchProperties {
+    public static final String DEFAULT_PREFIX = "org.ct42.fnflow.default.batch";
+    public static final String FUNCTION_PREFIX = "org.ct42.fnflow.batch";
+
+    /** maximum number of messages in a batch */
+    private int size = 500;
+    /** maximum time in ms to wait for a batch to be filled */
+    private long timeoutms = 500L;
+    /** number of batches processed at the same time, for {@link NonBlocking} functions the number of batch calls in flight */
+    private int concurrency = 1;
+    /** adapt the batch size to the latency of the function */
+    private boolean adaptive = false;
+    /** latency goal in ms per batch call in adaptive mode */
+    private long latencyGoalMs = 200L;
+    /** lower bound of the batch size in adaptive mode */
+    private int minSize = 1;
+    /** keep only the last message per Kafka key of a batch */
+    private boolean coalesce = false;
+}
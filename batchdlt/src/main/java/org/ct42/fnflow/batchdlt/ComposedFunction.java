@@ -16,20 +16,38 @@
 
 package org.ct42.fnflow.batchdlt;
 
+import com.fasterxml.jackson.core.JsonPointer;
 import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.ct42.fnflow.fnapi.NonMutating;
+import org.ct42.fnflow.fnapi.PointerAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.boot.context.properties.bind.Bindable;
 import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.cloud.stream.binding.BindingsLifecycleController;
 import org.springframework.context.ApplicationContext;
-import org.springframework.core.ResolvableType;
 import org.springframework.messaging.Message;
+import org.springframework.util.ClassUtils;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 import reactor.util.function.Tuple2;
 import reactor.util.function.Tuples;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 
 /**
@@ -37,61 +55,290 @@ import java.util.function.Function;
  * The function definition has to be provided with property <code>org.ct42.fnflow.function.definition</code>.
  * This bean has to be configured as one and only regular function for Spring Cloud Function the following way:
  * <code>spring.cloud.function.definition=fnFlowComposedFnBean</code>
+ * Batching is configured with <code>org.ct42.fnflow.default.batch.*</code>, overridden per batch function with
+ * <code>org.ct42.fnflow.batch.&lt;function bean name&gt;.*</code>.
+ * For each function, metrics are registered tagged by function bean name and function type.
+ * With <code>org.ct42.fnflow.parallelism</code> greater than 1, consecutive imperative functions are executed on that many
+ * rails in parallel. Messages are assigned to a rail by the hash of their Kafka key, keeping the order per key.
+ * A stage can be made conditional by a leading condition in brackets, see {@link StagePredicate}.
+ * Messages not matching the condition bypass the stage.
+ * The definition is resolved into a plan of stage wrappers once, at startup if the definition is configured.
+ * In a native image, the kinds of the function beans are taken from the {@link FunctionIndex} generated ahead of time.
+ * With <code>org.ct42.fnflow.input.selective=true</code> and all functions declaring the pointers they use
+ * (see {@link PointerAware}), only the top level fields of the input needed by the functions are parsed.
+ * The payloads are decoded by the <code>contentType</code> header of the input messages, falling back to the content type
+ * of the input binding, and encoded with the content type of the output binding, see {@link PayloadCodec}.
+ * With <code>org.ct42.fnflow.backpressure.high-watermark</code> configured, the input binding is paused
+ * if that many messages are in flight and resumed if the count drops to the low watermark, see {@link InFlight}.
+ * Messages are observed with the application's ObservationRegistry, sampled by
+ * <code>org.ct42.fnflow.tracing.sampling-probability</code>, see {@link MessageTracing}.
  *
  * @author Claas Thiele
  */
-public class ComposedFunction implements Function<Flux<Message<byte[]>>, Tuple2<Flux<Message<byte[]>>, Flux<Message<byte[]>>>> {
+@Slf4j
+public class ComposedFunction implements Function<Flux<Message<byte[]>>, Tuple2<Flux<Message<byte[]>>, Flux<Message<byte[]>>>>, SmartInitializingSingleton, DisposableBean {
+    public static final String DEFINITION_PROPERTY = "org.ct42.fnflow.function.definition";
+    public static final String IN_BINDING = "fnFlowComposedFnBean-in-0";
+    public static final String OUT_BINDING = "fnFlowComposedFnBean-out-0";
+
     private final ApplicationContext ctx;
+    private final MeterRegistry meterRegistry;
+    private final ObservationRegistry observationRegistry;
+    private Plan plan;
+    private Scheduler railScheduler;
+    private final AtomicReference<ErrorChannel> errorChannel = new AtomicReference<>();
+
+    public ComposedFunction(ApplicationContext ctx, MeterRegistry meterRegistry) {
+        this(ctx, meterRegistry, ObservationRegistry.NOOP);
+    }
 
-    public ComposedFunction(ApplicationContext ctx) {
+    public ComposedFunction(ApplicationContext ctx, MeterRegistry meterRegistry, ObservationRegistry observationRegistry) {
         this.ctx = ctx;
+        this.meterRegistry = meterRegistry;
+        this.observationRegistry = observationRegistry;
+        Gauge.builder(ErrorChannel.QUEUED, errorChannel, current -> current.get() == null ? 0 : current.get().queued())
+                .description("Failed messages waiting to be sent to the DLT")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Builds the plan at startup if a function definition is configured,
+     * so a misconfiguration fails the startup and the first message does not wait for the plan.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if(ctx.getEnvironment().containsProperty(DEFINITION_PROPERTY)) {
+            plan();
+        }
     }
 
     @Override
     public Tuple2<Flux<Message<byte[]>>, Flux<Message<byte[]>>> apply(Flux<Message<byte[]>> messageFlux) {
-        String definition = Binder.get(ctx.getEnvironment()).bind("org.ct42.fnflow.function.definition", Bindable.of(String.class)).orElse(null);
-        int batchSize = Binder.get(ctx.getEnvironment()).bind("org.ct42.fnflow.default.batch.size", Bindable.of(Integer.class)).orElse(500);
-        long batchTimeout = Binder.get(ctx.getEnvironment()).bind("org.ct42.fnflow.default.batch.timeoutms", Bindable.of(Long.class)).orElse(500L);
-        if(definition == null || definition.isEmpty()) throw new IllegalStateException("org.ct42.fnflow.function.definition not configured");
-        String[] fns = definition.split("\\|");
-
-        Sinks.Many<Message<Throwable>> errorSink = Sinks.many().unicast().onBackpressureBuffer();
-
-        ResolvableType imperativeType = ResolvableType.forClassWithGenerics(Function.class, JsonNode.class, JsonNode.class);
-        Set<String> imperativeBeans = Set.of(ctx.getBeanNamesForType(imperativeType));
-        ResolvableType batchListType = ResolvableType.forClassWithGenerics(List.class, BatchElement.class);
-        ResolvableType batchType = ResolvableType.forClassWithGenerics(Function.class, batchListType, batchListType);
-        Set<String> batchBeans = Set.of(ctx.getBeanNamesForType(batchType));
-        Flux<Message<JsonNode>> intermediate = new InMsg2Header().apply(messageFlux.doOnComplete(errorSink::tryEmitComplete));
-
-        for (String fn : fns) {
-            if( fn.contains("+")) { // multiply
-                String[] mfns = fn.split("\\+");
-                List<Function<JsonNode, JsonNode>> functions = Arrays.stream(mfns).map(mfn -> {
-                    if (!imperativeBeans.contains(mfn)) {
+        Plan plan = plan();
+        ErrorChannel errorChannel = new ErrorChannel(plan.errorCapacity(), plan.errorEmitTimeout(), meterRegistry);
+        this.errorChannel.set(errorChannel); // the gauge follows the channel of the last applied flux
+        InFlight inFlight = plan.highWatermark() > 0 ? new InFlight(plan.highWatermark(), plan.lowWatermark(),
+                () -> changeInputState(BindingsLifecycleController.State.PAUSED),
+                () -> changeInputState(BindingsLifecycleController.State.RESUMED), meterRegistry) : null;
+        Flux<Envelope> intermediate = new InMsg2Header(plan.inputCodec(), plan.inputFields(), inFlight, plan.tracing())
+                .apply(messageFlux.doOnComplete(errorChannel::complete));
+        for (BiFunction<Flux<Envelope>, ErrorChannel, Flux<Envelope>> segment : plan.segments()) {
+            intermediate = segment.apply(intermediate, errorChannel);
+        }
+        return Tuples.of(
+                    new OutConvert2ByteArray(plan.outputCodec(), errorChannel).apply(intermediate),
+                    new ErrorConvert2ByteArray().apply(errorChannel.asFlux())
+                );
+    }
+
+    /**
+     * Disposes the threads of the rails.
+     */
+    @Override
+    public synchronized void destroy() {
+        if(railScheduler != null) {
+            railScheduler.dispose();
+            railScheduler = null;
+        }
+    }
+
+    private void changeInputState(BindingsLifecycleController.State state) {
+        ctx.getBeanProvider(BindingsLifecycleController.class).ifAvailable(controller -> controller.changeState(IN_BINDING, state));
+    }
+
+    private synchronized Plan plan() {
+        if(plan == null) {
+            plan = createPlan();
+        }
+        return plan;
+    }
+
+    /**
+     * Resolves the functions of the definition and creates the wrappers for them.
+     * Runs of imperative functions are combined into one segment, each batch function is a segment on its own.
+     */
+    private Plan createPlan() {
+        String definition = Binder.get(ctx.getEnvironment()).bind(DEFINITION_PROPERTY, Bindable.of(String.class)).orElse(null);
+        int parallelism = Binder.get(ctx.getEnvironment()).bind("org.ct42.fnflow.parallelism", Bindable.of(Integer.class)).orElse(1);
+        if(definition == null || definition.isEmpty()) throw new IllegalStateException(DEFINITION_PROPERTY + " not configured");
+        List<StageDefinition> stages = StageDefinition.parseAll(definition);
+
+        boolean multiplyParallel = Binder.get(ctx.getEnvironment()).bind("org.ct42.fnflow.multiply.parallel", Bindable.of(Boolean.class)).orElse(false);
+        int errorCapacity = Binder.get(ctx.getEnvironment()).bind("org.ct42.fnflow.error.capacity", Bindable.of(Integer.class)).orElse(256);
+        long errorEmitTimeout = Binder.get(ctx.getEnvironment()).bind("org.ct42.fnflow.error.emit-timeoutms", Bindable.of(Long.class)).orElse(60000L);
+        boolean selective = Binder.get(ctx.getEnvironment()).bind("org.ct42.fnflow.input.selective", Bindable.of(Boolean.class)).orElse(false);
+        PayloadCodec inputCodec = bindingCodec(IN_BINDING);
+        PayloadCodec outputCodec = bindingCodec(OUT_BINDING);
+        long highWatermark = Binder.get(ctx.getEnvironment()).bind("org.ct42.fnflow.backpressure.high-watermark", Bindable.of(Long.class)).orElse(0L);
+        long lowWatermark = Binder.get(ctx.getEnvironment()).bind("org.ct42.fnflow.backpressure.low-watermark", Bindable.of(Long.class)).orElse(highWatermark / 2);
+        double samplingProbability = Binder.get(ctx.getEnvironment()).bind("org.ct42.fnflow.tracing.sampling-probability", Bindable.of(Double.class)).orElse(0.0);
+        railScheduler = parallelism > 1 ? Schedulers.newParallel("fnflow-rail", parallelism, true) : null;
+
+        FunctionIndex index = ctx.containsBean(FunctionIndex.BEAN_NAME)
+                ? ctx.getBean(FunctionIndex.BEAN_NAME, FunctionIndex.class)
+                : new FunctionIndex(Map.of());
+        List<BiFunction<Flux<Envelope>, ErrorChannel, Flux<Envelope>>> segments = new ArrayList<>();
+        List<BiFunction<Flux<Envelope>, ErrorChannel, Flux<Envelope>>> imperativeRun = new ArrayList<>();
+
+        for (int idx = 0; idx < stages.size(); idx++) {
+            StageDefinition stage = stages.get(idx);
+            if(stage.isMultiplying()) { // multiply
+                List<Function<JsonNode, JsonNode>> functions = stage.functions().stream().map(mfn -> {
+                    if (index.kind(mfn, ctx) != FunctionIndex.Kind.IMPERATIVE) {
                         throw new IllegalStateException("No matching imperative bean found for name " + mfn + ", multiplying is supported for imperative functions only");
                     }
                     return (Function<JsonNode, JsonNode>) ctx.getBean(mfn, Function.class);
                 }).toList();
-                MultiFnWrapper wrappedFns = new MultiFnWrapper(functions);
-                intermediate = wrappedFns.apply(intermediate, errorSink);
+                List<StageMetrics> metrics = stage.functions().stream().map(this::stageMetrics).toList();
+                boolean downstreamNonMutating = stages.subList(idx + 1, stages.size()).stream().allMatch(this::nonMutating);
+                imperativeRun.add(new MultiFnWrapper(functions, metrics, downstreamNonMutating, multiplyParallel, stage.guard()));
             } else { // regular
-                if(imperativeBeans.contains(fn)) {
+                String fn = stage.functions().getFirst();
+                FunctionIndex.Kind kind = index.kind(fn, ctx);
+                if(kind == FunctionIndex.Kind.IMPERATIVE) {
                     Function<JsonNode, JsonNode> fnBean = (Function<JsonNode, JsonNode>) ctx.getBean(fn, Function.class);
-                    FunctionWrapper wrappedFn = new FunctionWrapper(fnBean);
-                    intermediate = wrappedFn.apply(intermediate, errorSink);
-                } else if(batchBeans.contains(fn)) {
+                    int last = imperativeRun.size() - 1;
+                    if(last >= 0 && imperativeRun.get(last) instanceof FunctionWrapper previous) { // fuse consecutive functions
+                        imperativeRun.set(last, previous.andThen(fnBean, stageMetrics(fn), stage.guard()));
+                    } else {
+                        imperativeRun.add(new FunctionWrapper(fnBean, stageMetrics(fn), stage.guard()));
+                    }
+                } else if(kind == FunctionIndex.Kind.BATCH) {
                     Function<List<BatchElement>, List<BatchElement>> batchFnBean = (Function<List<BatchElement>, List<BatchElement>>) ctx.getBean(fn, Function.class);
-                    BatchFnWrapper wrappedBatchFn = new BatchFnWrapper(batchFnBean, batchSize, batchTimeout);
-                    intermediate = wrappedBatchFn.apply(intermediate, errorSink);
+                    BatchProperties properties = batchProperties(fn);
+                    if(properties.isCoalesce() && stages.subList(0, idx).stream().anyMatch(StageDefinition::isMultiplying)) {
+                        throw new IllegalStateException("Coalescing of batch function " + fn + " is not supported after a multiplying stage, the multiplied messages share their key");
+                    }
+                    BatchFnWrapper wrappedBatchFn = new BatchFnWrapper(batchFnBean, properties,
+                            stageMetrics(fn), new BatchMetrics(meterRegistry, fn, functionType(fn)), stage.guard());
+                    addImperativeRun(segments, imperativeRun, parallelism, railScheduler);
+                    imperativeRun.clear();
+                    segments.add(wrappedBatchFn);
                 } else {
                     throw new IllegalStateException("No matching bean found for name " + fn);
                 }
             }
         }
-        return Tuples.of(
-                    new OutConvert2ByteArray().apply(intermediate),
-                    new ErrorConvert2ByteArray().apply(errorSink.asFlux())
-                );
+        addImperativeRun(segments, imperativeRun, parallelism, railScheduler);
+        Set<String> inputFields = null;
+        if(selective && outputCodec != PayloadCodec.JSON) {
+            log.info("Selective parsing disabled, raw Json cannot be written with output codec {}", outputCodec);
+        } else if(selective) {
+            inputFields = inputFields(stages);
+        }
+        return new Plan(List.copyOf(segments), errorCapacity, Duration.ofMillis(errorEmitTimeout),
+                inputCodec, outputCodec, inputFields, highWatermark, lowWatermark,
+                new MessageTracing(observationRegistry, samplingProbability));
+    }
+
+    /**
+     * @return the codec for the content type of the binding, textual Json if not configured
+     */
+    private PayloadCodec bindingCodec(String binding) {
+        String contentType = Binder.get(ctx.getEnvironment())
+                .bind("spring.cloud.stream.bindings." + binding + ".content-type", Bindable.of(String.class)).orElse(null);
+        return PayloadCodec.of(contentType, PayloadCodec.JSON);
+    }
+
+    /**
+     * Collects the pointers declared by the stages from the last to the first stage,
+     * mapping the pointers of the following stages back to the input of each stage.
+     *
+     * @return the top level fields of the input needed by the stages, <code>null</code> if a function does not declare its pointers
+     */
+    private Set<String> inputFields(List<StageDefinition> stages) {
+        Set<JsonPointer> needed = new HashSet<>();
+        for (int idx = stages.size() - 1; idx >= 0; idx--) {
+            StageDefinition stage = stages.get(idx);
+            Set<JsonPointer> input = new HashSet<>(stage.guard().pointers());
+            if(stage.isConditional()) {
+                input.addAll(needed); // messages not matching the condition bypass the stage
+            }
+            for (String fn : stage.functions()) {
+                if(!(ctx.getBean(fn) instanceof PointerAware pointerAware)) {
+                    log.info("Selective parsing disabled, function {} does not declare its pointers", fn);
+                    return null;
+                }
+                pointerAware.pointers().stream().filter(Objects::nonNull).forEach(input::add);
+                needed.stream().map(pointerAware::inputLocation).filter(Objects::nonNull).forEach(input::add);
+            }
+            needed = input;
+        }
+        Set<String> fields = new HashSet<>();
+        needed.stream().filter(pointer -> !pointer.matches()).forEach(pointer -> fields.add(pointer.getMatchingProperty()));
+        log.info("Selective parsing enabled for fields {}", fields);
+        return Set.copyOf(fields);
+    }
+
+    /**
+     * Binds the batch properties of a batch function, the defaults overridden by the function specific properties.
+     * The function name is converted to kebab case, as property names must not contain upper case letters.
+     */
+    private BatchProperties batchProperties(String fn) {
+        BatchProperties properties = new BatchProperties();
+        Binder binder = Binder.get(ctx.getEnvironment());
+        binder.bind(BatchProperties.DEFAULT_PREFIX, Bindable.ofInstance(properties));
+        binder.bind(BatchProperties.FUNCTION_PREFIX + "." + convertCamelCaseToKebap(fn), Bindable.ofInstance(properties));
+        return properties;
+    }
+
+    private static String convertCamelCaseToKebap(String input) {
+        return input
+                .replaceAll("([A-Z])(?=[A-Z])", "$1-")
+                .replaceAll("([a-z])([A-Z])", "$1-$2")
+                .toLowerCase();
+    }
+
+    /**
+     * Adds a run of consecutive imperative stages as one segment, spread over rails if parallelism is configured.
+     * The rails are merged again at the end of the run.
+     */
+    private static void addImperativeRun(List<BiFunction<Flux<Envelope>, ErrorChannel, Flux<Envelope>>> segments,
+                                         List<BiFunction<Flux<Envelope>, ErrorChannel, Flux<Envelope>>> run,
+                                         int parallelism, Scheduler railScheduler) {
+        if(run.isEmpty()) return;
+        List<BiFunction<Flux<Envelope>, ErrorChannel, Flux<Envelope>>> stages = List.copyOf(run);
+        if(parallelism <= 1) {
+            segments.addAll(stages);
+            return;
+        }
+        segments.add((flux, errorChannel) -> flux.groupBy(m -> rail(m, parallelism)).flatMap(rail -> {
+            Flux<Envelope> railFlux = rail.publishOn(railScheduler);
+            for (BiFunction<Flux<Envelope>, ErrorChannel, Flux<Envelope>> stage : stages) {
+                railFlux = stage.apply(railFlux, errorChannel);
+            }
+            return railFlux;
+        }, parallelism));
+    }
+
+    /**
+     * @return the rail for the message, derived from the Kafka key or from the partition for messages without key
+     */
+    private static int rail(Envelope envelope, int parallelism) {
+        Object key = envelope.getKey();
+        int hash = key instanceof byte[] bytes ? Arrays.hashCode(bytes) : Objects.hashCode(key);
+        return Math.floorMod(hash, parallelism);
+    }
+
+    /**
+     * @return <code>true</code> if all functions of the stage are declared not to modify their input
+     */
+    private boolean nonMutating(StageDefinition stage) {
+        return stage.functions().stream().allMatch(fn -> ctx.containsBean(fn) && ctx.getBean(fn) instanceof NonMutating);
+    }
+
+    private StageMetrics stageMetrics(String fn) {
+        return new StageMetrics(meterRegistry, fn, functionType(fn));
+    }
+
+    private String functionType(String fn) {
+        Class<?> type = ctx.getType(fn);
+        return type == null ? "unknown" : ClassUtils.getUserClass(type).getSimpleName();
+    }
+
+    private record Plan(List<BiFunction<Flux<Envelope>, ErrorChannel, Flux<Envelope>>> segments,
+                        int errorCapacity, Duration errorEmitTimeout,
+                        PayloadCodec inputCodec, PayloadCodec outputCodec, Set<String> inputFields,
+                        long highWatermark, long lowWatermark, MessageTracing tracing) {
     }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlt;
+
+import org.springframework.aot.generate.GeneratedMethod;
+import org.springframework.beans.factory.aot.BeanFactoryInitializationAotContribution;
+import org.springframework.beans.factory.aot.BeanFactoryInitializationAotProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.javapoet.CodeBlock;
+
+import javax.lang.model.element.Modifier;
+import java.util.Map;
+
+/**
+ * Resolves the kinds of all function beans ahead of time and registers them as {@link FunctionIndex} in generated code,
+ * so the composed function does not have to look up the beans by type at startup.
+ * If a function definition is configured at build time, it is validated against the function beans, failing the build
+ * for unknown function names.
+ *
+ * @author Claas Thiele
+ */
+public class ComposedFunctionAotProcessor implements BeanFactoryInitializationAotProcessor {
+    @Override
+    public BeanFactoryInitializationAotContribution processAheadOfTime(ConfigurableListableBeanFactory beanFactory) {
+        FunctionIndex index = FunctionIndex.of(beanFactory);
+        String definition = beanFactory.getBean(Environment.class).getProperty(ComposedFunction.DEFINITION_PROPERTY);
+        if(definition != null && !definition.isBlank()) {
+            index.validate(StageDefinition.parseAll(definition), beanFactory);
+        }
+        return (ctx, code) -> {
+            CodeBlock entries = CodeBlock.join(index.getKinds().entrySet().stream()
+                    .map(e -> CodeBlock.of("$T.entry($S, $T.$L)", Map.class, e.getKey(), FunctionIndex.Kind.class, e.getValue().name()))
+                    .toList(), ", ");
+            GeneratedMethod method = code.getMethods().add("registerFunctionIndex", m -> m
+                    .addJavadoc("Register the index of the function beans available for the function definition.")
+                    .addModifiers(Modifier.PUBLIC)
+                    .addParameter(DefaultListableBeanFactory.class, "beanFactory")
+                    .addStatement("beanFactory.registerSingleton($S, new $T($T.ofEntries($L)))",
+                            FunctionIndex.BEAN_NAME, FunctionIndex.class, Map.class, entries));
+            code.addInitializer(method.toMethodReference());
+        };
+    }
+}
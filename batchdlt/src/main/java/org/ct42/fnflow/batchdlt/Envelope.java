@@ -0,0 +1,236 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlt;
+
+import io.micrometer.observation.Observation;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mutable envelope of a message passed between the stages of the composed function.
+ * Holds the payload, the headers added by the stages and a reference to the original input message.
+ * The headers of the original message are not copied, a Spring message is built by the output converters only.
+ * If the envelopes are counted {@link InFlight}, an envelope is released when converted to an output or DLT message,
+ * or when discarded.
+ * A sampled message carries an observation, see {@link MessageTracing}, shared by the derived envelopes
+ * and stopped when the last of them is done.
+ *
+ * @author Claas Thiele
+ */
+public class Envelope {
+    private final Message<byte[]> original;
+    private JsonPayload payload;
+    private Map<String, Object> addedHeaders;
+    private Throwable error;
+    private final InFlight inFlight;
+    private boolean released;
+    private MessageTracing tracing;
+    private Observation observation;
+    private AtomicInteger observers;
+    private Observation pendingStage;
+
+    private Envelope(Message<byte[]> original, JsonPayload payload, Map<String, Object> addedHeaders, InFlight inFlight) {
+        this.original = original;
+        this.payload = payload;
+        this.addedHeaders = addedHeaders;
+        this.inFlight = inFlight;
+        if(inFlight != null) {
+            inFlight.acquire();
+        }
+    }
+
+    public static Envelope of(Message<byte[]> original) {
+        return new Envelope(original, JsonPayload.ofBytes(original.getPayload()), null, null);
+    }
+
+    /**
+     * @param defaultCodec the codec of the payload if the message has no known <code>contentType</code> header
+     * @param fields the top level fields of the payload to be parsed, <code>null</code> to parse the whole payload
+     * @param inFlight the counter of envelopes in flight, <code>null</code> if not counted
+     */
+    public static Envelope of(Message<byte[]> original, PayloadCodec defaultCodec, Set<String> fields, InFlight inFlight) {
+        PayloadCodec codec = PayloadCodec.of(original.getHeaders().get(MessageHeaders.CONTENT_TYPE), defaultCodec);
+        return new Envelope(original, JsonPayload.ofBytes(original.getPayload(), codec, fields), null, inFlight);
+    }
+
+    /**
+     * @return a new envelope for the same original message with a copy of the added headers,
+     * sharing the observation of the message until done
+     */
+    public Envelope derive(JsonPayload payload) {
+        Envelope derived = new Envelope(original, payload, addedHeaders == null ? null : new HashMap<>(addedHeaders), inFlight);
+        if(observers != null) {
+            observers.incrementAndGet();
+            derived.tracing = tracing;
+            derived.observation = observation;
+            derived.observers = observers;
+        }
+        return derived;
+    }
+
+    /**
+     * Attaches the started observation of the message, stopped when this envelope and all envelopes derived from it are done.
+     */
+    public void observe(MessageTracing tracing, Observation observation) {
+        this.tracing = tracing;
+        this.observation = observation;
+        this.observers = new AtomicInteger(1);
+    }
+
+    /**
+     * @return the observation of the message, <code>null</code> if the message is not sampled
+     */
+    public Observation getObservation() {
+        return observation;
+    }
+
+    public MessageTracing getTracing() {
+        return tracing;
+    }
+
+    /**
+     * @return the stage observation started before the stage is called, e.g. while waiting for a batch
+     */
+    public Observation getPendingStage() {
+        return pendingStage;
+    }
+
+    public void setPendingStage(Observation pendingStage) {
+        this.pendingStage = pendingStage;
+    }
+
+    /**
+     * Marks this envelope as done without output, e.g. if a function discarded the message.
+     */
+    public void discard() {
+        if(released) return;
+        released = true;
+        if(inFlight != null) {
+            inFlight.release();
+        }
+        if(pendingStage != null) {
+            pendingStage.stop();
+        }
+        if(observers != null) {
+            if(error != null) observation.error(error);
+            if(observers.decrementAndGet() == 0) observation.stop();
+        }
+    }
+
+    public Message<byte[]> getOriginal() {
+        return original;
+    }
+
+    public JsonPayload getPayload() {
+        return payload;
+    }
+
+    public void setPayload(JsonPayload payload) {
+        this.payload = payload;
+    }
+
+    /**
+     * @return the headers added by the stages, never <code>null</code>
+     */
+    public Map<String, Object> getAddedHeaders() {
+        return addedHeaders == null ? Map.of() : addedHeaders;
+    }
+
+    public void addHeaders(Map<String, Object> headers) {
+        if(headers.isEmpty()) return;
+        if(addedHeaders == null) {
+            addedHeaders = new HashMap<>(headers);
+        } else {
+            addedHeaders.putAll(headers);
+        }
+    }
+
+    /**
+     * @return the Kafka key of the original message, the partition for messages without key
+     */
+    public Object getKey() {
+        Object key = original.getHeaders().get(KafkaHeaders.RECEIVED_KEY);
+        return key != null ? key : original.getHeaders().get(KafkaHeaders.RECEIVED_PARTITION);
+    }
+
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * Marks this envelope as failed, to be sent to the DLT with the original payload.
+     *
+     * @return this envelope
+     */
+    public Envelope failed(Throwable error) {
+        this.error = error;
+        return this;
+    }
+
+    /**
+     * @return the message to be sent to the output
+     */
+    public Message<byte[]> toMessage() {
+        return toMessage(PayloadCodec.JSON);
+    }
+
+    /**
+     * @param codec the codec of the output, set as <code>contentType</code> header if not textual Json
+     *              or if the original message has a <code>contentType</code> header
+     * @return the message to be sent to the output
+     * @throws IllegalStateException if the payload has to be transcoded and is not valid
+     */
+    public Message<byte[]> toMessage(PayloadCodec codec) {
+        MessageBuilder<byte[]> builder = MessageBuilder
+                .withPayload(payload.toBytes(codec))
+                .copyHeaders(original.getHeaders())
+                .copyHeaders(addedHeaders);
+        if(codec != PayloadCodec.JSON || original.getHeaders().containsKey(MessageHeaders.CONTENT_TYPE)) {
+            builder.setHeader(MessageHeaders.CONTENT_TYPE, codec.getContentType().toString());
+        }
+        if(observation != null) {
+            tracing.send(observation, builder, "output");
+        }
+        Message<byte[]> message = builder.build();
+        discard();
+        return message;
+    }
+
+    /**
+     * @return the message to be sent to the DLT, carrying the original payload and the exception
+     */
+    public Message<byte[]> toErrorMessage() {
+        MessageBuilder<byte[]> builder = MessageBuilder
+                .withPayload(original.getPayload())
+                .copyHeaders(original.getHeaders())
+                .copyHeaders(addedHeaders)
+                .setHeader("x-exception-message", error.getMessage())
+                .setHeader("x-exception-fqcn", error.getClass().getName());
+        if(observation != null) {
+            tracing.send(observation, builder, "dlt");
+        }
+        discard();
+        return builder.build();
+    }
+}
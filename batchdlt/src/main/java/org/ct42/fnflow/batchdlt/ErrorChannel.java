@@ -0,0 +1,104 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlt;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.kafka.support.KafkaHeaders;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Collects the failed envelopes of all stages, to be sent to the DLT.
+ * Emitting is safe from several threads at once, the emits are serialized.
+ * The buffer is bounded: if it is full, emitting blocks until the DLT producer catches up,
+ * passing the backpressure on to the stages and the Kafka consumer.
+ * If the buffer stays full for longer than the emit timeout, the failed envelope is dropped and counted.
+ * The number of queued envelopes is registered as gauge by the owner of the channels, see {@link #queued()}.
+ *
+ * @author Claas Thiele
+ */
+@Slf4j
+public class ErrorChannel {
+    public static final String QUEUED = "fnflow.errors.queued";
+    public static final String DROPPED = "fnflow.errors.dropped";
+
+    private static final long PARK_NANOS = 1_000_000L;
+
+    private final Queue<Envelope> queue;
+    private final Sinks.Many<Envelope> sink;
+    private final long emitTimeoutNanos;
+    private final Counter dropped;
+    private final Object lock = new Object();
+
+    public ErrorChannel(int capacity, Duration emitTimeout, MeterRegistry registry) {
+        this.queue = Queues.<Envelope>get(capacity).get();
+        this.sink = Sinks.many().unicast().onBackpressureBuffer(queue);
+        this.emitTimeoutNanos = emitTimeout.toNanos();
+        this.dropped = Counter.builder(DROPPED)
+                .description("Failed messages not sent to the DLT")
+                .register(registry);
+    }
+
+    public void emit(Envelope failed) {
+        long deadline = System.nanoTime() + emitTimeoutNanos;
+        while (true) {
+            Sinks.EmitResult result;
+            synchronized (lock) {
+                result = sink.tryEmitNext(failed);
+            }
+            if(result.isSuccess()) return;
+            if(result != Sinks.EmitResult.FAIL_OVERFLOW || System.nanoTime() - deadline > 0) {
+                drop(failed, result);
+                return;
+            }
+            LockSupport.parkNanos(PARK_NANOS); // the buffer is full, not holding the lock while waiting
+        }
+    }
+
+    public void complete() {
+        synchronized (lock) {
+            sink.tryEmitComplete();
+        }
+    }
+
+    /**
+     * @return the number of failed envelopes waiting to be sent to the DLT
+     */
+    public int queued() {
+        return queue.size();
+    }
+
+    public Flux<Envelope> asFlux() {
+        return sink.asFlux();
+    }
+
+    private void drop(Envelope failed, Sinks.EmitResult result) {
+        dropped.increment();
+        failed.discard();
+        log.error("Dropped failed message from partition {} offset {} ({}), error was: {}",
+                failed.getOriginal().getHeaders().get(KafkaHeaders.RECEIVED_PARTITION),
+                failed.getOriginal().getHeaders().get(KafkaHeaders.OFFSET),
+                result, failed.getError() == null ? null : failed.getError().getMessage());
+    }
+}
@@ -17,30 +17,18 @@
 package org.ct42.fnflow.batchdlt;
 
 import org.springframework.messaging.Message;
-import org.springframework.messaging.MessageHeaders;
-import org.springframework.messaging.support.MessageBuilder;
 import reactor.core.publisher.Flux;
 
 import java.util.function.Function;
 
 /**
+ * Builds the DLT message from a failed envelope, carrying the original input payload.
  *
  * @author Claas Thiele
  */
-public class ErrorConvert2ByteArray implements Function<Flux<Message<Throwable>>, Flux<Message<byte[]>>> {
+public class ErrorConvert2ByteArray implements Function<Flux<Envelope>, Flux<Message<byte[]>>> {
     @Override
-    public Flux<Message<byte[]>> apply(Flux<Message<Throwable>> f) {
-        return f.map(m -> {
-            MessageHeaders headers = m.getHeaders();
-            byte[] inPayload = (byte[])headers.get(InMsg2Header.IN_PAYLOAD_HEADER);
-
-            return MessageBuilder
-                    .withPayload(inPayload)
-                    .copyHeaders(headers)
-                    .setHeader("x-exception-message", m.getPayload().getMessage())
-                    .setHeader("x-exception-fqcn", m.getPayload().getClass().getName())
-                    .removeHeader(InMsg2Header.IN_PAYLOAD_HEADER)
-                    .build();
-        });
+    public Flux<Message<byte[]>> apply(Flux<Envelope> f) {
+        return f.map(Envelope::toErrorMessage);
     }
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlt;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.core.ResolvableType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Kinds of the function beans available for the function definition.
+ * Created ahead of time by {@link ComposedFunctionAotProcessor} for native images,
+ * names not known ahead of time, e.g. configurable functions configured at runtime, are resolved on demand.
+ *
+ * @author Claas Thiele
+ */
+public class FunctionIndex {
+    public static final String BEAN_NAME = "fnFlowFunctionIndex";
+
+    public static final ResolvableType IMPERATIVE_TYPE = ResolvableType.forClassWithGenerics(Function.class, JsonNode.class, JsonNode.class);
+    private static final ResolvableType BATCH_LIST_TYPE = ResolvableType.forClassWithGenerics(List.class, BatchElement.class);
+    public static final ResolvableType BATCH_TYPE = ResolvableType.forClassWithGenerics(Function.class, BATCH_LIST_TYPE, BATCH_LIST_TYPE);
+
+    public enum Kind { IMPERATIVE, BATCH }
+
+    private final Map<String, Kind> kinds;
+
+    public FunctionIndex(Map<String, Kind> kinds) {
+        this.kinds = kinds;
+    }
+
+    /**
+     * @return the index of all function beans of the bean factory
+     */
+    public static FunctionIndex of(ListableBeanFactory beanFactory) {
+        Map<String, Kind> kinds = new HashMap<>();
+        for(String name : beanFactory.getBeanNamesForType(IMPERATIVE_TYPE)) {
+            kinds.put(name, Kind.IMPERATIVE);
+        }
+        for(String name : beanFactory.getBeanNamesForType(BATCH_TYPE)) {
+            kinds.put(name, Kind.BATCH);
+        }
+        return new FunctionIndex(Map.copyOf(kinds));
+    }
+
+    public Map<String, Kind> getKinds() {
+        return kinds;
+    }
+
+    /**
+     * @return the kind of the function bean, <code>null</code> if there is no function bean with this name
+     */
+    public Kind kind(String name, BeanFactory beanFactory) {
+        Kind kind = kinds.get(name);
+        if(kind != null || !beanFactory.containsBean(name)) return kind;
+        if(beanFactory.isTypeMatch(name, IMPERATIVE_TYPE)) return Kind.IMPERATIVE;
+        if(beanFactory.isTypeMatch(name, BATCH_TYPE)) return Kind.BATCH;
+        return null;
+    }
+
+    /**
+     * @throws IllegalStateException if the definition refers to unknown functions
+     *                               or to batch functions in a multiplying stage
+     */
+    public void validate(List<StageDefinition> stages, BeanFactory beanFactory) {
+        List<String> problems = new ArrayList<>();
+        for(StageDefinition stage : stages) {
+            for(String fn : stage.functions()) {
+                Kind kind = kind(fn, beanFactory);
+                if(kind == null) {
+                    problems.add("No matching bean found for name " + fn);
+                } else if(kind == Kind.BATCH && stage.isMultiplying()) {
+                    problems.add("No matching imperative bean found for name " + fn + ", multiplying is supported for imperative functions only");
+                }
+            }
+        }
+        if(!problems.isEmpty()) throw new IllegalStateException(String.join("; ", problems));
+    }
+}
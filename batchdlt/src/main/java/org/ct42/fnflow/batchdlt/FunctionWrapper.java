@@ -17,46 +17,89 @@
 package org.ct42.fnflow.batchdlt;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import org.springframework.messaging.Message;
-import org.springframework.messaging.support.MessageBuilder;
+import io.micrometer.observation.Observation;
+import org.ct42.fnflow.fnapi.NonMutating;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.Sinks;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 
 /**
  * Wrapper function for functions of type Function&gt;JsonNode, JsonNode&gt;.
+ * Consecutive functions are fused into one wrapper, calling the functions back to back.
+ * If a function fails, the error is attributed to this function, carrying the headers added by the functions before.
+ * A function with a guard is skipped for messages not matching the guard.
  *
  * @author Claas Thiele
  */
-public class FunctionWrapper implements BiFunction<Flux<Message<JsonNode>>, Sinks.Many<Message<Throwable>>, Flux<Message<JsonNode>>> {
-    private final Function<JsonNode, JsonNode> target;
+public class FunctionWrapper implements BiFunction<Flux<Envelope>, ErrorChannel, Flux<Envelope>> {
+    private final List<Function<JsonNode, JsonNode>> targets;
+    private final List<StageMetrics> metrics;
+    private final List<StagePredicate> guards;
 
-    public FunctionWrapper(Function<JsonNode, JsonNode> target) {
-        this.target = target;
+    public FunctionWrapper(Function<JsonNode, JsonNode> target, StageMetrics metrics) {
+        this(target, metrics, StagePredicate.ALWAYS);
+    }
+
+    public FunctionWrapper(Function<JsonNode, JsonNode> target, StageMetrics metrics, StagePredicate guard) {
+        this(List.of(target), List.of(metrics), List.of(guard));
+    }
+
+    private FunctionWrapper(List<Function<JsonNode, JsonNode>> targets, List<StageMetrics> metrics, List<StagePredicate> guards) {
+        this.targets = targets;
+        this.metrics = metrics;
+        this.guards = guards;
+    }
+
+    /**
+     * @return a wrapper calling the given function after the functions of this wrapper
+     */
+    public FunctionWrapper andThen(Function<JsonNode, JsonNode> target, StageMetrics metrics, StagePredicate guard) {
+        List<Function<JsonNode, JsonNode>> fusedTargets = new ArrayList<>(targets);
+        fusedTargets.add(target);
+        List<StageMetrics> fusedMetrics = new ArrayList<>(this.metrics);
+        fusedMetrics.add(metrics);
+        List<StagePredicate> fusedGuards = new ArrayList<>(guards);
+        fusedGuards.add(guard);
+        return new FunctionWrapper(List.copyOf(fusedTargets), List.copyOf(fusedMetrics), List.copyOf(fusedGuards));
     }
 
     @Override
-    public Flux<Message<JsonNode>> apply(Flux<Message<JsonNode>> messageFlux, Sinks.Many<Message<Throwable>> error) {
-        return messageFlux.mapNotNull(m -> {
-            Map<String, Object> headersToBeAdded = new HashMap<>(0);
-            if(target instanceof HeaderAware headerAware) {
-                headersToBeAdded = headerAware.headersToBeAdded(m.getPayload());
+    public Flux<Envelope> apply(Flux<Envelope> envelopeFlux, ErrorChannel error) {
+        return envelopeFlux.<Envelope>handle((envelope, sink) -> {
+            for (int i = 0; i < targets.size(); i++) {
+                Function<JsonNode, JsonNode> target = targets.get(i);
+                StageMetrics stageMetrics = metrics.get(i);
+                if(!guards.get(i).testOrFail(envelope, stageMetrics, error)) {
+                    if(envelope.getError() != null) return;
+                    continue;
+                }
+                long start = System.nanoTime();
+                Observation observation = stageMetrics.observe(envelope, "function");
+                try {
+                    JsonNode input = envelope.getPayload().getNode();
+                    Map<String, Object> added = target instanceof HeaderAware headerAware ? headerAware.headersToBeAdded(input) : Map.of();
+                    JsonNode result = target.apply(input);
+                    if(result == null) { // if the function is resulting to null, message is discarded
+                        envelope.discard();
+                        return;
+                    }
+                    envelope.addHeaders(added);
+                    envelope.setPayload(envelope.getPayload().withResult(result, target instanceof NonMutating));
+                } catch (RuntimeException e) {
+                    observation.error(e);
+                    stageMetrics.failed(1);
+                    error.emit(envelope.failed(e));
+                    return;
+                } finally {
+                    stageMetrics.record(start, 1);
+                    observation.stop();
+                }
             }
-            JsonNode result = target.apply(m.getPayload());
-            if(result == null) return null; // if the function is resulting to null, message is discarded
-            MessageBuilder<JsonNode> builder = MessageBuilder.withPayload(result)
-                    .copyHeaders(m.getHeaders());
-            headersToBeAdded.forEach(builder::setHeader);
-            return builder.build();
-        }).onErrorContinue((throwable, m) -> error.tryEmitNext(
-                            MessageBuilder
-                                    .withPayload(throwable)
-                                    .copyHeaders(((Message<JsonNode>)m).getHeaders())
-                                    .build()
-                        ));
+            sink.next(envelope);
+        });
     }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlt;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the envelopes in flight between the input and the output or DLT of the composed function.
+ * If the count reaches the high watermark, the input is paused. It is resumed if the count drops to the low watermark.
+ * Envelopes derived by a multiplying stage are counted on their own.
+ * Pausing and resuming is serialized, so the state of the input always follows the last watermark crossed.
+ *
+ * @author Claas Thiele
+ */
+@Slf4j
+public class InFlight {
+    public static final String IN_FLIGHT = "fnflow.inflight";
+
+    private final AtomicLong count = new AtomicLong();
+    private final Object lock = new Object();
+    private volatile boolean paused;
+    private final long highWatermark;
+    private final long lowWatermark;
+    private final Runnable pause;
+    private final Runnable resume;
+
+    /**
+     * @param pause called if the high watermark is reached
+     * @param resume called if the count drops to the low watermark after a pause
+     */
+    public InFlight(long highWatermark, long lowWatermark, Runnable pause, Runnable resume, MeterRegistry registry) {
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.pause = pause;
+        this.resume = resume;
+        Gauge.builder(IN_FLIGHT, count, AtomicLong::get)
+                .description("Messages received but not yet sent to the output or the DLT")
+                .strongReference(true)
+                .register(registry);
+    }
+
+    public void acquire() {
+        if(count.incrementAndGet() >= highWatermark && !paused) {
+            synchronized (lock) {
+                if(paused || count.get() < highWatermark) {
+                    return;
+                }
+                paused = true;
+                log.info("Pausing input, {} messages in flight", highWatermark);
+                pause.run();
+                // releases seeing the input not yet paused did not resume it
+                resumeIfDrained();
+            }
+        }
+    }
+
+    public void release() {
+        if(count.decrementAndGet() <= lowWatermark && paused) {
+            synchronized (lock) {
+                resumeIfDrained();
+            }
+        }
+    }
+
+    private void resumeIfDrained() {
+        if(paused && count.get() <= lowWatermark) {
+            paused = false;
+            log.info("Resuming input, {} messages in flight", lowWatermark);
+            resume.run();
+        }
+    }
+
+    public long get() {
+        return count.get();
+    }
+}
@@ -16,35 +16,56 @@
 
 package org.ct42.fnflow.batchdlt;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.observation.Observation;
+import org.ct42.fnflow.fnapi.PointerAware;
 import org.springframework.messaging.Message;
-import org.springframework.messaging.support.MessageBuilder;
 import reactor.core.publisher.Flux;
 
-import java.io.IOException;
+import java.util.Set;
 import java.util.function.Function;
 
 /**
+ * Wraps the raw input into an {@link Envelope}, parsing is deferred to the first stage accessing the tree.
+ * An invalid Json input is therefore sent to the error channel by the first stage touching it.
+ * If the fields to be parsed are given, the other top level fields of the input are not parsed into a tree,
+ * see {@link PointerAware}.
+ * The codec of the input is chosen by the <code>contentType</code> header of each message, falling back to a default codec.
+ * An observation is started for sampled messages, see {@link MessageTracing}.
  *
  * @author Claas Thiele
  */
-public class InMsg2Header implements Function<Flux<Message<byte[]>>, Flux<Message<JsonNode>>> {
-    public static final String IN_PAYLOAD_HEADER = "__IN_PAYLOAD_BYTEARRAY";
-    private final ObjectMapper mapper = new ObjectMapper();
+public class InMsg2Header implements Function<Flux<Message<byte[]>>, Flux<Envelope>> {
+    private final PayloadCodec defaultCodec;
+    private final Set<String> fields;
+    private final InFlight inFlight;
+    private final MessageTracing tracing;
+
+    public InMsg2Header() {
+        this(PayloadCodec.JSON, null, null, MessageTracing.DISABLED);
+    }
+
+    /**
+     * @param defaultCodec the codec for messages without known <code>contentType</code> header
+     * @param fields the top level fields to be parsed, <code>null</code> to parse the whole input
+     * @param inFlight the counter of envelopes in flight, <code>null</code> if not counted
+     * @param tracing the tracing starting the observation of sampled messages
+     */
+    public InMsg2Header(PayloadCodec defaultCodec, Set<String> fields, InFlight inFlight, MessageTracing tracing) {
+        this.defaultCodec = defaultCodec;
+        this.fields = fields;
+        this.inFlight = inFlight;
+        this.tracing = tracing;
+    }
 
     @Override
-    public Flux<Message<JsonNode>> apply(Flux<Message<byte[]>> messageFlux) {
-        return messageFlux.handle((m, sink) -> {
-            try {
-                sink.next(MessageBuilder
-                        .withPayload(mapper.readValue(m.getPayload(), JsonNode.class))
-                        .copyHeaders(m.getHeaders())
-                        .setHeader(IN_PAYLOAD_HEADER, m.getPayload())
-                        .build());
-            } catch (IOException e) {
-                sink.error(new IllegalStateException("Failed to convert payload", e));
+    public Flux<Envelope> apply(Flux<Message<byte[]>> messageFlux) {
+        return messageFlux.map(message -> {
+            Envelope envelope = Envelope.of(message, defaultCodec, fields, inFlight);
+            Observation observation = tracing.start(message);
+            if(observation != null) {
+                envelope.observe(tracing, observation);
             }
+            return envelope;
         });
     }
 }
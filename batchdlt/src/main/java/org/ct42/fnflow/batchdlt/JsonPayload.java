@@ -0,0 +1,170 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlt;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.RawValue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Payload passed between the stages of the composed function.
+ * The raw input bytes are parsed into a tree on first access only.
+ * As long as no stage replaced or modified the tree, the raw bytes are written to the output unchanged.
+ * If the top level fields needed by the stages are known, only these fields are parsed into a tree.
+ * The other fields are kept as raw Json slices of the input, written to the output as they are.
+ * The raw bytes are decoded and the output is encoded with a {@link PayloadCodec}, textual Json by default.
+ * Raw bytes are passed through only if the output codec is the codec of the input.
+ *
+ * @author Claas Thiele
+ */
+public class JsonPayload {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final byte[] source;
+    private final PayloadCodec codec;
+    private final Set<String> fields;
+    private JsonNode node;
+
+    private JsonPayload(byte[] source, PayloadCodec codec, Set<String> fields, JsonNode node) {
+        this.source = source;
+        this.codec = codec;
+        this.fields = fields;
+        this.node = node;
+    }
+
+    public static JsonPayload ofBytes(byte[] source) {
+        return new JsonPayload(source, PayloadCodec.JSON, null, null);
+    }
+
+    /**
+     * @param codec the encoding of the raw bytes
+     * @param fields the top level fields to be parsed into a tree, <code>null</code> to parse the whole input,
+     *               ignored for binary codecs
+     */
+    public static JsonPayload ofBytes(byte[] source, PayloadCodec codec, Set<String> fields) {
+        return new JsonPayload(source, codec, codec == PayloadCodec.JSON ? fields : null, null);
+    }
+
+    public static JsonPayload ofNode(JsonNode node) {
+        return new JsonPayload(null, null, null, node);
+    }
+
+    /**
+     * @return the payload as tree, parsed from the raw bytes on first call
+     * @throws IllegalStateException if the raw bytes are not valid for the codec
+     */
+    public JsonNode getNode() {
+        if(node == null) {
+            try {
+                node = fields == null ? codec.read(source) : readSelective();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to convert payload", e);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Streams the top level object, parsing the needed fields into trees and skipping the others as raw slices.
+     * Inputs not being an object are parsed completely.
+     */
+    private JsonNode readSelective() throws IOException {
+        try (JsonParser parser = MAPPER.createParser(source)) {
+            if(parser.nextToken() != JsonToken.START_OBJECT) {
+                return codec.read(source);
+            }
+            ObjectNode object = MAPPER.getNodeFactory().objectNode();
+            JsonToken token = parser.nextToken();
+            while(token == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                parser.nextToken();
+                if(fields.contains(name)) {
+                    object.set(name, MAPPER.readTree(parser));
+                    token = parser.nextToken();
+                } else {
+                    int start = (int) parser.currentTokenLocation().getByteOffset();
+                    parser.skipChildren();
+                    token = parser.nextToken(); // the next field or the end of the object marks the end of the value
+                    int end = trimEnd(start, (int) parser.currentTokenLocation().getByteOffset());
+                    object.putRawValue(name, new RawValue(new String(source, start, end - start, StandardCharsets.UTF_8)));
+                }
+            }
+            if(token != JsonToken.END_OBJECT) {
+                throw new IOException("Unexpected token " + token + " in payload");
+            }
+            return object;
+        }
+    }
+
+    /**
+     * @return the end of the value before <code>end</code>, excluding whitespace and the separating comma
+     */
+    private int trimEnd(int start, int end) {
+        while(end > start && isWhitespace(source[end - 1])) end--;
+        if(end > start && source[end - 1] == ',') end--;
+        while(end > start && isWhitespace(source[end - 1])) end--;
+        return end;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    /**
+     * Creates the payload for a stage result.
+     *
+     * @param result the output of the stage
+     * @param nonMutating <code>true</code> if the stage is known not to modify its input
+     * @return this payload if the stage passed its unmodified input through, a new payload otherwise
+     */
+    public JsonPayload withResult(JsonNode result, boolean nonMutating) {
+        if(nonMutating && result == node) {
+            return this;
+        }
+        return ofNode(result);
+    }
+
+    /**
+     * @return the raw input bytes if still valid, otherwise the tree serialized as textual Json
+     */
+    public byte[] toBytes() {
+        return toBytes(PayloadCodec.JSON);
+    }
+
+    /**
+     * @param target the codec of the output
+     * @return the raw input bytes if still valid and of the target codec, otherwise the tree serialized with the target codec
+     * @throws IllegalStateException if the raw bytes have to be transcoded and are not valid for the codec of the input
+     */
+    public byte[] toBytes(PayloadCodec target) {
+        if(source != null && codec == target) {
+            return source;
+        }
+        try {
+            return target.write(getNode());
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to convert payload", e);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlt;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.observation.transport.ReceiverContext;
+import io.micrometer.observation.transport.SenderContext;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Creates the observations of messages passed through the composed function:
+ * one observation per message from the input to the output or DLT, a child observation per stage,
+ * and a child observation for sending, propagating the context into the headers of the output or DLT message.
+ * The context of the input is extracted from the headers of the input message by the tracing handlers, if configured.
+ * Messages are sampled with the configured probability, messages with a sampled W3C <code>traceparent</code> header are always observed.
+ *
+ * @author Claas Thiele
+ */
+public class MessageTracing {
+    public static final String MESSAGE_OBSERVATION = "fnflow.message";
+    public static final String STAGE_OBSERVATION = "fnflow.stage";
+    public static final String SEND_OBSERVATION = "fnflow.send";
+    public static final String TRACEPARENT = "traceparent";
+
+    public static final MessageTracing DISABLED = new MessageTracing(ObservationRegistry.NOOP, 0.0);
+
+    private final ObservationRegistry registry;
+    private final double samplingProbability;
+
+    public MessageTracing(ObservationRegistry registry, double samplingProbability) {
+        this.registry = registry;
+        this.samplingProbability = samplingProbability;
+    }
+
+    /**
+     * @return the started observation of the message, <code>null</code> if the message is not sampled
+     */
+    public Observation start(Message<byte[]> message) {
+        if(registry.isNoop() || !sampled(message)) {
+            return null;
+        }
+        ReceiverContext<Message<byte[]>> context = new ReceiverContext<>(MessageTracing::header);
+        context.setCarrier(message);
+        context.setRemoteServiceName("kafka");
+        return Observation.createNotStarted(MESSAGE_OBSERVATION, () -> context, registry)
+                .lowCardinalityKeyValue("topic", String.valueOf(message.getHeaders().get(KafkaHeaders.RECEIVED_TOPIC)))
+                .start();
+    }
+
+    /**
+     * @return the started observation of a stage, child of the message observation
+     */
+    public Observation stage(Observation message, String function, String type, String wrapper) {
+        return Observation.createNotStarted(STAGE_OBSERVATION, registry)
+                .parentObservation(message)
+                .contextualName(wrapper + " " + function)
+                .lowCardinalityKeyValue("function", function)
+                .lowCardinalityKeyValue("type", type)
+                .lowCardinalityKeyValue("wrapper", wrapper)
+                .start();
+    }
+
+    /**
+     * Observes sending the message, propagating the context into the headers of the message to be built.
+     */
+    public void send(Observation message, MessageBuilder<byte[]> builder, String destination) {
+        SenderContext<MessageBuilder<byte[]>> context = new SenderContext<>((carrier, key, value) -> {
+            if(carrier != null) carrier.setHeader(key, value);
+        });
+        context.setCarrier(builder);
+        context.setRemoteServiceName("kafka");
+        Observation.createNotStarted(SEND_OBSERVATION, () -> context, registry)
+                .parentObservation(message)
+                .lowCardinalityKeyValue("destination", destination)
+                .start()
+                .stop();
+    }
+
+    private boolean sampled(Message<byte[]> message) {
+        String traceparent = header(message, TRACEPARENT);
+        if(traceparent != null && traceparent.length() == 55) { // version-traceid-parentid-flags
+            return (Character.digit(traceparent.charAt(54), 16) & 1) == 1;
+        }
+        return samplingProbability > 0.0 && ThreadLocalRandom.current().nextDouble() < samplingProbability;
+    }
+
+    private static String header(Message<byte[]> message, String key) {
+        Object value = message.getHeaders().get(key);
+        if(value instanceof byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value == null ? null : value.toString();
+    }
+}
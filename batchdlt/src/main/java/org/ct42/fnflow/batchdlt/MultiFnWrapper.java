@@ -17,12 +17,12 @@
 package org.ct42.fnflow.batchdlt;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import org.springframework.messaging.Message;
-import org.springframework.messaging.support.MessageBuilder;
+import io.micrometer.observation.Observation;
+import org.ct42.fnflow.fnapi.NonMutating;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.Sinks;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -30,45 +30,123 @@ import java.util.function.BiFunction;
 import java.util.function.Function;
 
 /**
+ * Multiplies each message by passing it to several functions, emitting one message per function in declaration order.
+ * The input tree is copied up front for the functions possibly modifying it, except for one function getting the original.
+ * Functions declared {@link NonMutating} share the original tree without copy,
+ * if none of the following stages is modifying its input.
+ * With parallel enabled, the functions are called concurrently on the bounded elastic scheduler,
+ * the resulting messages are still emitted in declaration order.
+ * Messages not matching the guard of the stage are passed through unchanged.
+ * A message with an invalid input is sent to the error channel once, not once per function.
+ *
  * @author Claas Thiele
  * @author Sajjad Safaeian
  */
-public class MultiFnWrapper implements BiFunction<Flux<Message<JsonNode>>, Sinks.Many<Message<Throwable>>, Flux<Message<JsonNode>>> {
+public class MultiFnWrapper implements BiFunction<Flux<Envelope>, ErrorChannel, Flux<Envelope>> {
     private final List<Function<JsonNode, JsonNode>> targets;
+    private final List<StageMetrics> metrics;
+    private final boolean[] copy;
+    private final boolean parallel;
+    private final StagePredicate guard;
+
+    /**
+     * @param targets the functions to multiply the messages with
+     * @param metrics the metrics for each target, in the same order as the targets
+     */
+    public MultiFnWrapper(List<Function<JsonNode, JsonNode>> targets, List<StageMetrics> metrics) {
+        this(targets, metrics, false, false, StagePredicate.ALWAYS);
+    }
 
-    public MultiFnWrapper(List<Function<JsonNode, JsonNode>> targets) {
+    /**
+     * @param targets the functions to multiply the messages with
+     * @param metrics the metrics for each target, in the same order as the targets
+     * @param downstreamNonMutating <code>true</code> if none of the following stages is modifying its input,
+     *                              so the resulting messages may share a tree
+     * @param parallel <code>true</code> to call the functions for one message concurrently
+     * @param guard the condition for messages to be multiplied, other messages are passed through unchanged
+     */
+    public MultiFnWrapper(List<Function<JsonNode, JsonNode>> targets, List<StageMetrics> metrics,
+                          boolean downstreamNonMutating, boolean parallel, StagePredicate guard) {
         this.targets = targets;
+        this.metrics = metrics;
+        this.parallel = parallel;
+        this.guard = guard;
+        this.copy = new boolean[targets.size()];
+        boolean shared = false;
+        for (int i = 0; i < targets.size(); i++) {
+            copy[i] = !(downstreamNonMutating && targets.get(i) instanceof NonMutating);
+            shared |= !copy[i];
+        }
+        if(!shared) {
+            copy[targets.size() - 1] = false; // the last function gets the original
+        }
     }
 
     @Override
-    @SuppressWarnings("unchecked")
-    public Flux<Message<JsonNode>> apply(Flux<Message<JsonNode>> messageFlux, Sinks.Many<Message<Throwable>> error) {
-        return messageFlux.flatMapSequential(m ->
-            Flux.fromIterable(targets).concatMap(f -> {
-                try {
-                    Map<String, Object> headersToBeAdded = new HashMap<>();
-                    if (f instanceof HeaderAware headerAware) {
-                        headersToBeAdded = headerAware.headersToBeAdded(m.getPayload());
-                    }
-                    JsonNode result = f.apply(m.getPayload().deepCopy());
-                    if (result == null) {
-                        return Flux.empty();
-                    }
-                    MessageBuilder<JsonNode> builder = MessageBuilder.withPayload(result)
-                            .copyHeaders(m.getHeaders());
-                    headersToBeAdded.forEach(builder::setHeader);
-                    return Flux.just(builder.build());
-                } catch (Throwable t) {
-                    error.tryEmitNext(
-                        MessageBuilder
-                            .withPayload(t)
-                            .copyHeaders(m.getHeaders())
-                            .build()
-                    );
+    public Flux<Envelope> apply(Flux<Envelope> envelopeFlux, ErrorChannel error) {
+        return envelopeFlux.flatMapSequential(m -> {
+            if(!guard.testOrFail(m, metrics.getFirst(), error)) {
+                return m.getError() == null ? Flux.just(m) : Flux.empty();
+            }
+            JsonNode[] inputs;
+            try {
+                inputs = inputs(m.getPayload().getNode());
+            } catch (RuntimeException e) { // invalid input, failed once instead of once per function
+                metrics.forEach(stageMetrics -> stageMetrics.failed(1));
+                error.emit(m.failed(e));
+                return Flux.empty();
+            }
+            if(parallel) {
+                return Flux.range(0, targets.size()).flatMapSequential(i ->
+                        Mono.fromCallable(() -> branch(m, inputs[i], i, error)).subscribeOn(Schedulers.boundedElastic()),
+                        targets.size()).doFinally(s -> m.discard()); // the input is replaced by the derived messages
+            }
+            return Flux.range(0, targets.size()).mapNotNull(i -> branch(m, inputs[i], i, error)).doFinally(s -> m.discard());
+        });
+    }
+
+    /**
+     * Calls one function.
+     *
+     * @return the resulting envelope, <code>null</code> if the function discarded the message or failed
+     */
+    private Envelope branch(Envelope m, JsonNode input, int i, ErrorChannel error) {
+        Function<JsonNode, JsonNode> f = targets.get(i);
+        long start = System.nanoTime();
+        Observation observation = metrics.get(i).observe(m, "multiply");
+        try {
+            Map<String, Object> headersToBeAdded = Map.of();
+            if (f instanceof HeaderAware headerAware) {
+                headersToBeAdded = headerAware.headersToBeAdded(input);
+            }
+            JsonNode result = f.apply(input);
+            metrics.get(i).record(start, 1);
+            if (result == null) {
+                return null;
+            }
+            Envelope out = m.derive(copy[i] ? JsonPayload.ofNode(result) : m.getPayload().withResult(result, f instanceof NonMutating));
+            out.addHeaders(headersToBeAdded);
+            return out;
+        } catch (Throwable t) {
+            observation.error(t);
+            metrics.get(i).record(start, 1);
+            metrics.get(i).failed(1);
+            error.emit(m.derive(m.getPayload()).failed(t));
+
+            return null;
+        } finally {
+            observation.stop();
+        }
+    }
 
-                    return Flux.empty();
-                }
-            })
-        );
+    /**
+     * @return the input per function, all copies are taken before any function may modify the original
+     */
+    private JsonNode[] inputs(JsonNode input) {
+        JsonNode[] inputs = new JsonNode[targets.size()];
+        for (int i = 0; i < targets.size(); i++) {
+            inputs[i] = copy[i] ? input.deepCopy() : input;
+        }
+        return inputs;
     }
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlt;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Batch function able to process a batch without blocking the calling thread.
+ * The batch function wrapper calls {@link #applyAsync(List)} instead of the blocking function,
+ * with up to <code>concurrency</code> batches in flight.
+ *
+ * @author Claas Thiele
+ */
+public interface NonBlocking {
+    /**
+     * @return the batch with the results set, completed when all elements are processed
+     */
+    CompletableFuture<List<BatchElement>> applyAsync(List<BatchElement> batch);
+}
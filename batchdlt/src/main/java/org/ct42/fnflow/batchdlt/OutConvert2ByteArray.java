@@ -16,28 +16,44 @@
 
 package org.ct42.fnflow.batchdlt;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import org.springframework.messaging.Message;
-import org.springframework.messaging.support.MessageBuilder;
 import reactor.core.publisher.Flux;
 
-import java.nio.charset.StandardCharsets;
 import java.util.function.Function;
 
 /**
+ * Builds the output message from the envelope, writing the payload with a shared writer directly into a byte array
+ * and passing unmodified input bytes through.
+ * If the output codec differs from the codec of the input, the payload is transcoded.
+ * An input not touched by any stage and failing to be transcoded is sent to the error channel.
  *
  * @author Claas Thiele
  */
-public class OutConvert2ByteArray implements Function<Flux<Message<JsonNode>>, Flux<Message<byte[]>>> {
+public class OutConvert2ByteArray implements Function<Flux<Envelope>, Flux<Message<byte[]>>> {
+    private final PayloadCodec codec;
+    private final ErrorChannel error;
+
+    /**
+     * Writes textual Json, a failure to transcode a binary input is propagated.
+     */
+    public OutConvert2ByteArray() {
+        this(PayloadCodec.JSON, null);
+    }
+
+    public OutConvert2ByteArray(PayloadCodec codec, ErrorChannel error) {
+        this.codec = codec;
+        this.error = error;
+    }
+
     @Override
-    public Flux<Message<byte[]>> apply(Flux<Message<JsonNode>> f) {
-        return f.map(m -> {
-            byte[] bytesStr = m.getPayload().toString().getBytes(StandardCharsets.UTF_8);
-            return MessageBuilder
-                    .withPayload(bytesStr)
-                    .copyHeaders(m.getHeaders())
-                    .removeHeader(InMsg2Header.IN_PAYLOAD_HEADER)
-                    .build();
+    public Flux<Message<byte[]>> apply(Flux<Envelope> f) {
+        return f.handle((envelope, sink) -> {
+            try {
+                sink.next(envelope.toMessage(codec));
+            } catch (IllegalStateException e) {
+                if(error == null) throw e;
+                error.emit(envelope.failed(e));
+            }
         });
     }
 }
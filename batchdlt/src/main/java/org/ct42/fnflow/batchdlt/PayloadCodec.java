@@ -0,0 +1,88 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlt;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encoding of the payloads, textual Json or one of the binary Json formats Smile and CBOR.
+ * The codec of an input message is chosen by its <code>contentType</code> header.
+ *
+ * @author Claas Thiele
+ */
+public enum PayloadCodec {
+    JSON(MimeTypeUtils.APPLICATION_JSON, new ObjectMapper()),
+    SMILE(MimeType.valueOf("application/x-jackson-smile"), new SmileMapper()),
+    CBOR(MimeType.valueOf("application/cbor"), new CBORMapper());
+
+    private final MimeType contentType;
+    private final ObjectReader reader;
+    private final ObjectWriter writer;
+
+    PayloadCodec(MimeType contentType, ObjectMapper mapper) {
+        this.contentType = contentType;
+        this.reader = mapper.readerFor(JsonNode.class);
+        this.writer = mapper.writer();
+    }
+
+    public MimeType getContentType() {
+        return contentType;
+    }
+
+    public JsonNode read(byte[] source) throws IOException {
+        return reader.readValue(source);
+    }
+
+    public byte[] write(JsonNode node) throws IOException {
+        return writer.writeValueAsBytes(node);
+    }
+
+    /**
+     * @param contentType the content type as {@link MimeType}, String or bytes, may be <code>null</code>
+     * @param defaultCodec the codec for a missing or unknown content type
+     * @return the codec for the content type
+     */
+    public static PayloadCodec of(Object contentType, PayloadCodec defaultCodec) {
+        MimeType mimeType;
+        try {
+            mimeType = switch (contentType) {
+                case MimeType type -> type;
+                case String text -> MimeTypeUtils.parseMimeType(text);
+                case byte[] bytes -> MimeTypeUtils.parseMimeType(new String(bytes, StandardCharsets.UTF_8).replace("\"", ""));
+                case null, default -> null;
+            };
+        } catch (IllegalArgumentException e) {
+            return defaultCodec;
+        }
+        if(mimeType != null) {
+            for (PayloadCodec codec : values()) {
+                if(codec.contentType.equalsTypeAndSubtype(mimeType)) return codec;
+            }
+        }
+        return defaultCodec;
+    }
+}
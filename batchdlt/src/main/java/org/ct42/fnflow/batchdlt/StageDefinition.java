@@ -0,0 +1,58 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlt;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One stage of the function definition: a function name, or several function names separated by <code>+</code>
+ * for a multiplying stage, optionally prefixed by a condition in brackets, e.g. <code>[/type=person]match</code>.
+ *
+ * @param functions the function names of the stage
+ * @param guard the condition a message has to fulfill to be passed to the stage
+ *
+ * @author Claas Thiele
+ */
+public record StageDefinition(List<String> functions, StagePredicate guard) {
+    /**
+     * @param definition the function definition, stages separated by <code>|</code>
+     */
+    public static List<StageDefinition> parseAll(String definition) {
+        return Arrays.stream(definition.split("\\|")).map(StageDefinition::parse).toList();
+    }
+
+    public static StageDefinition parse(String stage) {
+        StagePredicate guard = StagePredicate.ALWAYS;
+        String functions = stage.trim();
+        if(functions.startsWith("[")) {
+            int end = functions.indexOf(']');
+            if(end < 0) throw new IllegalStateException("Unclosed condition in stage " + stage);
+            guard = StagePredicate.parse(functions.substring(1, end).trim());
+            functions = functions.substring(end + 1).trim();
+        }
+        return new StageDefinition(List.of(functions.split("\\+")), guard);
+    }
+
+    public boolean isMultiplying() {
+        return functions.size() > 1;
+    }
+
+    public boolean isConditional() {
+        return guard != StagePredicate.ALWAYS;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlt;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of one function in the composed function, tagged by function bean name and function type.
+ * Creates the stage observations for sampled messages.
+ *
+ * @author Claas Thiele
+ */
+public class StageMetrics {
+    public static final String DURATION = "fnflow.stage.duration";
+    public static final String MESSAGES = "fnflow.stage.messages";
+    public static final String ERRORS = "fnflow.stage.errors";
+
+    private final String function;
+    private final String type;
+    private final Timer duration;
+    private final Counter messages;
+    private final Counter errors;
+
+    /**
+     * @param registry the registry to register the meters with
+     * @param function the bean name of the function
+     * @param type the function type, the simple class name of the function bean
+     */
+    public StageMetrics(MeterRegistry registry, String function, String type) {
+        this.function = function;
+        this.type = type;
+        Tags tags = tags(function, type);
+        duration = Timer.builder(DURATION)
+                .description("Time spent in the function call")
+                .tags(tags)
+                .register(registry);
+        messages = Counter.builder(MESSAGES)
+                .description("Messages passed to the function")
+                .tags(tags)
+                .register(registry);
+        errors = Counter.builder(ERRORS)
+                .description("Messages the function failed for")
+                .tags(tags)
+                .register(registry);
+    }
+
+    static Tags tags(String function, String type) {
+        return Tags.of("function", function, "type", type);
+    }
+
+    /**
+     * Records one function call.
+     *
+     * @param startNanos start of the call, taken from {@link System#nanoTime()}
+     * @param count number of messages passed to the call
+     */
+    public void record(long startNanos, int count) {
+        duration.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        messages.increment(count);
+    }
+
+    public void failed(int count) {
+        errors.increment(count);
+    }
+
+    /**
+     * @param wrapper the kind of stage, e.g. <code>function</code> or <code>batch</code>
+     * @return the started observation of the stage for the message, {@link Observation#NOOP} if the message is not sampled
+     */
+    public Observation observe(Envelope envelope, String wrapper) {
+        if(envelope.getObservation() == null) {
+            return Observation.NOOP;
+        }
+        return envelope.getTracing().stage(envelope.getObservation(), function, type, wrapper);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlt;
+
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.ct42.fnflow.fnapi.PointerAware;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Condition deciding whether a message is passed to a stage.
+ * Messages not matching bypass the stage unchanged, keeping their position in the flow.
+ * Supported expressions:
+ * <ul>
+ *     <li><code>/json/pointer</code>: the payload has a non-null value at the pointer</li>
+ *     <li><code>/json/pointer=value</code>: the text of the value at the pointer equals the given value</li>
+ *     <li><code>header:name</code>: the message has the header</li>
+ *     <li><code>header:name=value</code>: the header value equals the given value</li>
+ * </ul>
+ * Each expression can be negated with a leading <code>!</code>.
+ *
+ * @author Claas Thiele
+ */
+@FunctionalInterface
+public interface StagePredicate {
+    StagePredicate ALWAYS = envelope -> true;
+
+    String HEADER_PREFIX = "header:";
+
+    /**
+     * @throws IllegalStateException if the payload is not valid Json for a JsonPointer condition
+     */
+    boolean test(Envelope envelope);
+
+    /**
+     * @return the pointers into the payload the condition reads, see {@link PointerAware}
+     */
+    default List<JsonPointer> pointers() {
+        return List.of();
+    }
+
+    /**
+     * Tests the message, sending it to the error channel if the test fails with an exception.
+     *
+     * @return <code>true</code> if the message matches, <code>false</code> if not or if it has been sent to the error channel
+     */
+    default boolean testOrFail(Envelope envelope, StageMetrics metrics, ErrorChannel error) {
+        try {
+            return test(envelope);
+        } catch (RuntimeException e) {
+            metrics.failed(1);
+            error.emit(envelope.failed(e));
+            return false;
+        }
+    }
+
+    static StagePredicate parse(String expression) {
+        boolean negate = expression.startsWith("!");
+        String condition = negate ? expression.substring(1) : expression;
+        int eq = condition.indexOf('=');
+        String subject = eq < 0 ? condition : condition.substring(0, eq);
+        String value = eq < 0 ? null : condition.substring(eq + 1);
+
+        StagePredicate predicate;
+        JsonPointer pointer = null;
+        if(subject.startsWith(HEADER_PREFIX)) {
+            String name = subject.substring(HEADER_PREFIX.length());
+            predicate = envelope -> {
+                Object header = envelope.getAddedHeaders().get(name);
+                if(header == null) header = envelope.getOriginal().getHeaders().get(name);
+                if(header == null) return false;
+                if(value == null) return true;
+                String text = header instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : header.toString();
+                return value.equals(text);
+            };
+        } else if(subject.startsWith("/")) {
+            pointer = JsonPointer.compile(subject);
+            JsonPointer at = pointer;
+            predicate = envelope -> {
+                JsonNode node = envelope.getPayload().getNode().at(at);
+                if(value == null) return !node.isMissingNode() && !node.isNull();
+                return node.isValueNode() && value.equals(node.asText());
+            };
+        } else {
+            throw new IllegalStateException("Invalid stage condition " + expression + ", expected a JsonPointer or " + HEADER_PREFIX + "<name>");
+        }
+        StagePredicate result = negate ? envelope -> !predicate.test(envelope) : predicate;
+        return pointer == null ? result : reading(pointer, result);
+    }
+
+    private static StagePredicate reading(JsonPointer pointer, StagePredicate predicate) {
+        return new StagePredicate() {
+            @Override
+            public boolean test(Envelope envelope) {
+                return predicate.test(envelope);
+            }
+
+            @Override
+            public List<JsonPointer> pointers() {
+                return List.of(pointer);
+            }
+        };
+    }
+}
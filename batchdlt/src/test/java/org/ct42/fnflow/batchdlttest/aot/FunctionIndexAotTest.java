@@ -0,0 +1,97 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlttest.aot;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.ct42.fnflow.batchdlt.BatchElement;
+import org.ct42.fnflow.batchdlt.ComposedFunction;
+import org.ct42.fnflow.batchdlt.ComposedFunctionAotProcessor;
+import org.ct42.fnflow.batchdlt.FunctionIndex;
+import org.junit.jupiter.api.Test;
+import org.springframework.aot.test.generate.TestGenerationContext;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.aot.ApplicationContextAotGenerator;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.test.tools.TestCompiler;
+import org.springframework.javapoet.ClassName;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+
+/**
+ * @author Claas Thiele
+ */
+public class FunctionIndexAotTest {
+    @Test
+    @SuppressWarnings("unchecked")
+    void testGeneratedInitializerRegistersFunctionIndex() {
+        GenericApplicationContext context = context("jupper|jbatch");
+        TestGenerationContext generationContext = new TestGenerationContext();
+        ClassName initializerName = new ApplicationContextAotGenerator().processAheadOfTime(context, generationContext);
+        generationContext.writeGeneratedContent();
+
+        TestCompiler.forSystem().with(generationContext).compile(compiled -> {
+            try (GenericApplicationContext aotContext = new GenericApplicationContext()) {
+                compiled.getInstance(ApplicationContextInitializer.class, initializerName.reflectionName()).initialize(aotContext);
+                aotContext.refresh();
+
+                then(aotContext.getBean(FunctionIndex.BEAN_NAME, FunctionIndex.class).getKinds())
+                        .containsEntry("jupper", FunctionIndex.Kind.IMPERATIVE)
+                        .containsEntry("jbatch", FunctionIndex.Kind.BATCH);
+            }
+        });
+    }
+
+    @Test
+    void testInvalidDefinitionFailsBuild() {
+        GenericApplicationContext context = context("jupper+jbatch|junknown");
+
+        thenThrownBy(() -> new ApplicationContextAotGenerator().processAheadOfTime(context, new TestGenerationContext()))
+                .hasStackTraceContaining("No matching imperative bean found for name jbatch")
+                .hasStackTraceContaining("No matching bean found for name junknown");
+    }
+
+    private static GenericApplicationContext context(String definition) {
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.getEnvironment().getPropertySources()
+                .addFirst(new MapPropertySource("test", Map.of(ComposedFunction.DEFINITION_PROPERTY, definition)));
+        context.registerBeanDefinition("composedFunctionAotProcessor", new RootBeanDefinition(ComposedFunctionAotProcessor.class));
+        context.registerBeanDefinition("jupper", new RootBeanDefinition(Upper.class));
+        context.registerBeanDefinition("jbatch", new RootBeanDefinition(Batch.class));
+        return context;
+    }
+
+    public static class Upper implements Function<JsonNode, JsonNode> {
+        @Override
+        public JsonNode apply(JsonNode n) {
+            return n;
+        }
+    }
+
+    public static class Batch implements Function<List<BatchElement>, List<BatchElement>> {
+        @Override
+        public List<BatchElement> apply(List<BatchElement> b) {
+            return b;
+        }
+    }
+}
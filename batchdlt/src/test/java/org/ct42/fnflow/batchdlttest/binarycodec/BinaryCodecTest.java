@@ -0,0 +1,178 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlttest.binarycodec;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.test.context.TestPropertySource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * @author Claas Thiele
+ */
+@SpringBootTest
+@EmbeddedKafka(bootstrapServersProperty = "spring.cloud.stream.kafka.binder.brokers", partitions = 1)
+@TestPropertySource(properties = {
+        "spring.cloud.function.definition=fnFlowComposedFnBean",
+        "spring.cloud.stream.default.group=test",
+        "spring.cloud.stream.bindings.fnFlowComposedFnBean-in-0.content-type=application/x-jackson-smile",
+        "spring.cloud.stream.bindings.fnFlowComposedFnBean-out-0.content-type=application/cbor",
+        "org.ct42.fnflow.function.definition=jmark"
+})
+public class BinaryCodecTest {
+    public static final String IN_TOPIC = "fnFlowComposedFnBean-in-0";
+    public static final String OUT_TOPIC = "fnFlowComposedFnBean-out-0";
+    public static final String DLT_TOPIC = "fnFlowComposedFnBean-out-1";
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafka;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry;
+
+    private KafkaTemplate<String, byte[]> template;
+    private final BlockingQueue<ConsumerRecord<String, byte[]>> inRecords = new LinkedBlockingQueue<>();
+    private final BlockingQueue<ConsumerRecord<String, byte[]>> dltRecords = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    public void setUp() {
+        setupProducer();
+        setupConsumer(inRecords, OUT_TOPIC);
+        setupConsumer(dltRecords, DLT_TOPIC);
+    }
+
+    @Test
+    void testSmileInputIsTranscodedToCbor() throws Exception {
+        byte[] smile = new SmileMapper().writeValueAsBytes(Map.of("text", "T0"));
+        template.sendDefault(smile);
+        template.sendDefault("not smile".getBytes(StandardCharsets.UTF_8));
+
+        ConsumerRecord<String, byte[]> out = inRecords.poll(5000, TimeUnit.MILLISECONDS);
+        then(out).isNotNull();
+        JsonNode result = new CBORMapper().readTree(out.value());
+        then(result.toString()).isEqualTo("{\"text\":\"T0\",\"marked\":true}");
+        then(new String(out.headers().lastHeader("contentType").value(), StandardCharsets.UTF_8)).contains("application/cbor");
+
+        ConsumerRecord<String, byte[]> error = dltRecords.poll(5000, TimeUnit.MILLISECONDS);
+        then(error).isNotNull();
+        then(new String(error.value(), StandardCharsets.UTF_8)).isEqualTo("not smile");
+        then(inRecords.poll(1000, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @SpringBootApplication
+    @ComponentScan
+    protected static class TestConfiguration {
+    }
+
+    @Component("jmark")
+    protected final static class Mark implements Function<JsonNode, JsonNode> {
+        @Override
+        public JsonNode apply(JsonNode n) {
+            ((ObjectNode)n).put("marked", true);
+            return n;
+        }
+    }
+
+
+    private void setupConsumer(BlockingQueue<ConsumerRecord<String, byte[]>> queue, String topic) {
+        // set up the Kafka consumer properties
+        Map<String, Object> consumerProperties =
+                KafkaTestUtils.consumerProps("sender", "false", embeddedKafka);
+        consumerProperties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+
+        // create a Kafka consumer factory
+        DefaultKafkaConsumerFactory<String, byte[]> consumerFactory =
+                new DefaultKafkaConsumerFactory<>(consumerProperties);
+
+        // set the topic that needs to be consumed
+        ContainerProperties containerProperties =
+                new ContainerProperties(topic);
+
+        // create a Kafka MessageListenerContainer
+        KafkaMessageListenerContainer<String, byte[]> inContainer =
+                new KafkaMessageListenerContainer<>(consumerFactory, containerProperties);
+
+        // setup a Kafka message listener
+        inContainer.setupMessageListener((MessageListener<String, byte[]>) queue::add);
+
+        // start the container and underlying message listener
+        inContainer.start();
+
+        // wait until the container has the required number of assigned partitions
+        ContainerTestUtils.waitForAssignment(inContainer, 1);
+    }
+
+    private void setupProducer() {
+        // set up the Kafka producer properties
+        Map<String, Object> senderProperties =
+                KafkaTestUtils.producerProps(
+                        embeddedKafka.getBrokersAsString());
+        senderProperties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+
+        // create a Kafka producer factory
+        ProducerFactory<String, byte[]> producerFactory =
+                new DefaultKafkaProducerFactory<>(
+                        senderProperties);
+
+        // create a Kafka template
+        template = new KafkaTemplate<>(producerFactory);
+        // set the default topic to send to
+        template.setDefaultTopic(IN_TOPIC);
+
+        // wait until the partitions are assigned
+        for (MessageListenerContainer messageListenerContainer : kafkaListenerEndpointRegistry
+                .getListenerContainers()) {
+            ContainerTestUtils.waitForAssignment(messageListenerContainer,
+                    embeddedKafka.getPartitionsPerTopic());
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlttest.concurrentbatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.ct42.fnflow.batchdlt.BatchElement;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * @author Claas Thiele
+ */
+@SpringBootTest
+@EmbeddedKafka(bootstrapServersProperty = "spring.cloud.stream.kafka.binder.brokers")
+@TestPropertySource(properties = {
+        "spring.cloud.function.definition=fnFlowComposedFnBean",
+        "spring.cloud.stream.default.group=test",
+        "org.ct42.fnflow.function.definition=jslowbatch",
+        "org.ct42.fnflow.default.batch.size=5",
+        "org.ct42.fnflow.default.batch.timeoutms=100",
+        "org.ct42.fnflow.default.batch.concurrency=4"
+})
+public class ConcurrentBatchTest {
+    public static final String IN_TOPIC = "fnFlowComposedFnBean-in-0";
+    public static final String OUT_TOPIC = "fnFlowComposedFnBean-out-0";
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafka;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry;
+
+    @Autowired
+    private SlowBatch slowBatch;
+
+    private KafkaTemplate<String, String> template;
+    private final BlockingQueue<ConsumerRecord<String, String>> inRecords = new LinkedBlockingQueue<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @BeforeEach
+    public void setUp() {
+        setupProducer();
+        setupConsumer(inRecords, OUT_TOPIC);
+    }
+
+    @Test
+    void testConcurrentBatchesKeepOrder() throws Exception {
+        for (int i = 0; i < 40; i++) {
+            template.sendDefault("{\"n\":" + i + "}");
+        }
+        template.flush();
+        List<Integer> sequence = new ArrayList<>();
+        while (true) {
+            ConsumerRecord<String, String> received =
+                    inRecords.poll(2000, TimeUnit.MILLISECONDS);
+            if (received == null) {
+                break;
+            }
+            JsonNode value = objectMapper.readTree(received.value());
+            then(value.get("processed").booleanValue()).isTrue();
+            sequence.add(value.get("n").asInt());
+        }
+        then(sequence).hasSize(40);
+        then(sequence).isSorted();
+        then(slowBatch.maxInFlight.get()).isGreaterThan(1);
+    }
+
+    @SpringBootApplication
+    @ComponentScan
+    protected static class TestConfiguration {
+    }
+
+    @Component("jslowbatch")
+    protected final static class SlowBatch implements Function<List<BatchElement>, List<BatchElement>> {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        @Override
+        public List<BatchElement> apply(List<BatchElement> b) {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                // emulates a remote round trip, later batches may finish earlier
+                Thread.sleep(b.getFirst().getInput().get("n").asInt() % 2 == 0 ? 300 : 100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            b.forEach(e -> e.processWithOutput(((ObjectNode) e.getInput()).put("processed", true)));
+            return b;
+        }
+    }
+
+
+    private void setupConsumer(BlockingQueue<ConsumerRecord<String, String>> queue, String topic) {
+        // set up the Kafka consumer properties
+        Map<String, Object> consumerProperties =
+                KafkaTestUtils.consumerProps("sender", "false", embeddedKafka);
+
+        // create a Kafka consumer factory
+        DefaultKafkaConsumerFactory<String, String> consumerFactory =
+                new DefaultKafkaConsumerFactory<>(consumerProperties);
+
+        // set the topic that needs to be consumed
+        ContainerProperties containerProperties =
+                new ContainerProperties(topic);
+
+        // create a Kafka MessageListenerContainer
+        KafkaMessageListenerContainer<String, String> inContainer =
+                new KafkaMessageListenerContainer<>(consumerFactory, containerProperties);
+
+        // setup a Kafka message listener
+        inContainer.setupMessageListener((MessageListener<String, String>) queue::add);
+
+        // start the container and underlying message listener
+        inContainer.start();
+
+        // wait until the container has the required number of assigned partitions
+        ContainerTestUtils.waitForAssignment(inContainer, 1);
+    }
+
+    private void setupProducer() {
+        // set up the Kafka producer properties
+        Map<String, Object> senderProperties =
+                KafkaTestUtils.producerProps(
+                        embeddedKafka.getBrokersAsString());
+
+        // create a Kafka producer factory
+        ProducerFactory<String, String> producerFactory =
+                new DefaultKafkaProducerFactory<>(
+                        senderProperties);
+
+        // create a Kafka template
+        template = new KafkaTemplate<>(producerFactory);
+        // set the default topic to send to
+        template.setDefaultTopic(IN_TOPIC);
+
+        // wait until the partitions are assigned
+        for (MessageListenerContainer messageListenerContainer : kafkaListenerEndpointRegistry
+                .getListenerContainers()) {
+            ContainerTestUtils.waitForAssignment(messageListenerContainer,
+                    embeddedKafka.getPartitionsPerTopic());
+        }
+    }
+}
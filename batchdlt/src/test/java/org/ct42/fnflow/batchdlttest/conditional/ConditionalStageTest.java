@@ -0,0 +1,201 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlttest.conditional;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.ct42.fnflow.batchdlt.BatchElement;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.test.context.TestPropertySource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * @author Claas Thiele
+ */
+@SpringBootTest
+@EmbeddedKafka(bootstrapServersProperty = "spring.cloud.stream.kafka.binder.brokers", partitions = 1)
+@TestPropertySource(properties = {
+        "spring.cloud.function.definition=fnFlowComposedFnBean",
+        "spring.cloud.stream.default.group=test",
+        "org.ct42.fnflow.function.definition=[/type=a]jtagA|[!/type=a]jtagOther|[/type=a]jbatchtag|[header:route=x]jroute",
+        // longer than the test is waiting for a message, the bypassing messages have to flush the batch
+        "org.ct42.fnflow.batch.jbatchtag.timeoutms=5000"
+})
+public class ConditionalStageTest {
+    public static final String IN_TOPIC = "fnFlowComposedFnBean-in-0";
+    public static final String OUT_TOPIC = "fnFlowComposedFnBean-out-0";
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafka;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry;
+
+    private KafkaTemplate<String, String> template;
+    private final BlockingQueue<ConsumerRecord<String, String>> inRecords = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    public void setUp() {
+        setupProducer();
+        setupConsumer(inRecords, OUT_TOPIC);
+    }
+
+    @Test
+    void testConditionalStages() throws Exception {
+        template.sendDefault("{\"type\":\"a\",\"n\":0}");
+        template.sendDefault("{\"type\":\"b\",\"n\":1}");
+        template.sendDefault("{\"type\":\"a\",\"n\":2}");
+        ProducerRecord<String, String> routed = new ProducerRecord<>(IN_TOPIC, "{\"type\":\"b\",\"n\":3}");
+        routed.headers().add("route", "x".getBytes(StandardCharsets.UTF_8));
+        template.send(routed);
+        List<String> results = new ArrayList<>();
+        while (true) {
+            ConsumerRecord<String, String> received =
+                    inRecords.poll(2000, TimeUnit.MILLISECONDS);
+            if (received == null) {
+                break;
+            }
+            results.add(received.value());
+        }
+        then(results).containsExactly(
+                "{\"type\":\"a\",\"n\":0,\"tag\":\"A\",\"batch\":true}",
+                "{\"type\":\"b\",\"n\":1,\"tag\":\"other\"}",
+                "{\"type\":\"a\",\"n\":2,\"tag\":\"A\",\"batch\":true}",
+                "{\"type\":\"b\",\"n\":3,\"tag\":\"other\",\"routed\":true}");
+    }
+
+    @SpringBootApplication
+    @ComponentScan
+    protected static class TestConfiguration {
+    }
+
+    @Component("jtagA")
+    protected final static class TagA implements Function<JsonNode, JsonNode> {
+        @Override
+        public JsonNode apply(JsonNode n) {
+            return ((ObjectNode)n).put("tag", "A");
+        }
+    }
+
+    @Component("jtagOther")
+    protected final static class TagOther implements Function<JsonNode, JsonNode> {
+        @Override
+        public JsonNode apply(JsonNode n) {
+            return ((ObjectNode)n).put("tag", "other");
+        }
+    }
+
+    @Component("jroute")
+    protected final static class Route implements Function<JsonNode, JsonNode> {
+        @Override
+        public JsonNode apply(JsonNode n) {
+            return ((ObjectNode)n).put("routed", true);
+        }
+    }
+
+    @Component("jbatchtag")
+    protected final static class BatchTag implements Function<List<BatchElement>, List<BatchElement>> {
+        @Override
+        public List<BatchElement> apply(List<BatchElement> b) {
+            b.forEach(e -> e.processWithOutput(((ObjectNode)e.getInput()).put("batch", true)));
+            return b;
+        }
+    }
+
+
+    private void setupConsumer(BlockingQueue<ConsumerRecord<String, String>> queue, String topic) {
+        // set up the Kafka consumer properties
+        Map<String, Object> consumerProperties =
+                KafkaTestUtils.consumerProps("sender", "false", embeddedKafka);
+
+        // create a Kafka consumer factory
+        DefaultKafkaConsumerFactory<String, String> consumerFactory =
+                new DefaultKafkaConsumerFactory<>(consumerProperties);
+
+        // set the topic that needs to be consumed
+        ContainerProperties containerProperties =
+                new ContainerProperties(topic);
+
+        // create a Kafka MessageListenerContainer
+        KafkaMessageListenerContainer<String, String> inContainer =
+                new KafkaMessageListenerContainer<>(consumerFactory, containerProperties);
+
+        // setup a Kafka message listener
+        inContainer.setupMessageListener((MessageListener<String, String>) queue::add);
+
+        // start the container and underlying message listener
+        inContainer.start();
+
+        // wait until the container has the required number of assigned partitions
+        ContainerTestUtils.waitForAssignment(inContainer, 1);
+    }
+
+    private void setupProducer() {
+        // set up the Kafka producer properties
+        Map<String, Object> senderProperties =
+                KafkaTestUtils.producerProps(
+                        embeddedKafka.getBrokersAsString());
+
+        // create a Kafka producer factory
+        ProducerFactory<String, String> producerFactory =
+                new DefaultKafkaProducerFactory<>(
+                        senderProperties);
+
+        // create a Kafka template
+        template = new KafkaTemplate<>(producerFactory);
+        // set the default topic to send to
+        template.setDefaultTopic(IN_TOPIC);
+
+        // wait until the partitions are assigned
+        for (MessageListenerContainer messageListenerContainer : kafkaListenerEndpointRegistry
+                .getListenerContainers()) {
+            ContainerTestUtils.waitForAssignment(messageListenerContainer,
+                    embeddedKafka.getPartitionsPerTopic());
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlttest.fusion;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.ct42.fnflow.batchdlt.HeaderAware;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.test.context.TestPropertySource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * @author Claas Thiele
+ */
+@SpringBootTest
+@EmbeddedKafka(bootstrapServersProperty = "spring.cloud.stream.kafka.binder.brokers", partitions = 1)
+@TestPropertySource(properties = {
+        "spring.cloud.function.definition=fnFlowComposedFnBean",
+        "spring.cloud.stream.default.group=test",
+        "org.ct42.fnflow.function.definition=jlog|jfail|jsuffix"
+})
+public class FusionTest {
+    public static final String IN_TOPIC = "fnFlowComposedFnBean-in-0";
+    public static final String OUT_TOPIC = "fnFlowComposedFnBean-out-0";
+    public static final String DLT_TOPIC = "fnFlowComposedFnBean-out-1";
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafka;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private KafkaTemplate<String, String> template;
+    private final BlockingQueue<ConsumerRecord<String, String>> inRecords = new LinkedBlockingQueue<>();
+    private final BlockingQueue<ConsumerRecord<String, String>> errRecords = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    public void setUp() {
+        setupProducer();
+        setupConsumer(inRecords, OUT_TOPIC);
+        setupConsumer(errRecords, DLT_TOPIC);
+    }
+
+    @Test
+    void testFusedFunctions() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            template.sendDefault("{\"text\":\"T" + i + "\"}");
+        }
+        List<ConsumerRecord<String, String>> results = new ArrayList<>();
+        while (true) {
+            ConsumerRecord<String, String> received =
+                    inRecords.poll(2000, TimeUnit.MILLISECONDS);
+            if (received == null) {
+                break;
+            }
+            results.add(received);
+        }
+        List<ConsumerRecord<String, String>> errors = new ArrayList<>();
+        while (true) {
+            ConsumerRecord<String, String> received =
+                    errRecords.poll(200, TimeUnit.MILLISECONDS);
+            if (received == null) {
+                break;
+            }
+            errors.add(received);
+        }
+        RecordHeader logHeader = new RecordHeader("logLog", "seen by log function".getBytes(StandardCharsets.UTF_8));
+
+        then(results).hasSize(3);
+        then(results).extracting(ConsumerRecord::value).containsExactly(
+                "{\"text\":\"T0-S\"}", "{\"text\":\"T1-S\"}", "{\"text\":\"T3-S\"}");
+        then(results).allSatisfy(r -> then(r.headers().toArray()).contains(logHeader));
+
+        then(errors).hasSize(1);
+        then(errors.getFirst().value()).isEqualTo("{\"text\":\"T2\"}");
+        then(errors.getFirst().headers().toArray()).contains(logHeader);
+        then(new String(errors.getFirst().headers().lastHeader("x-exception-message").value(), StandardCharsets.UTF_8)).isEqualTo("ERR");
+
+        then(meterRegistry.get("fnflow.stage.errors").tags("function", "jfail").counter().count()).isEqualTo(1.0);
+        then(meterRegistry.get("fnflow.stage.errors").tags("function", "jsuffix").counter().count()).isEqualTo(0.0);
+        then(meterRegistry.get("fnflow.stage.messages").tags("function", "jlog").counter().count()).isEqualTo(4.0);
+        then(meterRegistry.get("fnflow.stage.messages").tags("function", "jsuffix").counter().count()).isEqualTo(3.0);
+    }
+
+    @SpringBootApplication
+    @ComponentScan
+    protected static class TestConfiguration {
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
+    @Component("jlog")
+    protected final static class Log implements Function<JsonNode, JsonNode>, HeaderAware {
+        @Override
+        public JsonNode apply(JsonNode n) {
+            return n;
+        }
+
+        @Override
+        public Map<String, Object> headersToBeAdded(JsonNode input) {
+            return Map.of("logLog", "seen by log function");
+        }
+    }
+
+    @Component("jfail")
+    protected final static class Fail implements Function<JsonNode, JsonNode> {
+        @Override
+        public JsonNode apply(JsonNode n) {
+            if (n.get("text").textValue().equals("T2")) throw new RuntimeException("ERR");
+            return n;
+        }
+    }
+
+    @Component("jsuffix")
+    protected final static class Suffix implements Function<JsonNode, JsonNode> {
+        @Override
+        public JsonNode apply(JsonNode n) {
+            ((ObjectNode)n).put("text", n.get("text").textValue() + "-S");
+            return n;
+        }
+    }
+
+
+    private void setupConsumer(BlockingQueue<ConsumerRecord<String, String>> queue, String topic) {
+        // set up the Kafka consumer properties
+        Map<String, Object> consumerProperties =
+                KafkaTestUtils.consumerProps("sender", "false", embeddedKafka);
+
+        // create a Kafka consumer factory
+        DefaultKafkaConsumerFactory<String, String> consumerFactory =
+                new DefaultKafkaConsumerFactory<>(consumerProperties);
+
+        // set the topic that needs to be consumed
+        ContainerProperties containerProperties =
+                new ContainerProperties(topic);
+
+        // create a Kafka MessageListenerContainer
+        KafkaMessageListenerContainer<String, String> inContainer =
+                new KafkaMessageListenerContainer<>(consumerFactory, containerProperties);
+
+        // setup a Kafka message listener
+        inContainer.setupMessageListener((MessageListener<String, String>) queue::add);
+
+        // start the container and underlying message listener
+        inContainer.start();
+
+        // wait until the container has the required number of assigned partitions
+        ContainerTestUtils.waitForAssignment(inContainer, 1);
+    }
+
+    private void setupProducer() {
+        // set up the Kafka producer properties
+        Map<String, Object> senderProperties =
+                KafkaTestUtils.producerProps(
+                        embeddedKafka.getBrokersAsString());
+
+        // create a Kafka producer factory
+        ProducerFactory<String, String> producerFactory =
+                new DefaultKafkaProducerFactory<>(
+                        senderProperties);
+
+        // create a Kafka template
+        template = new KafkaTemplate<>(producerFactory);
+        // set the default topic to send to
+        template.setDefaultTopic(IN_TOPIC);
+
+        // wait until the partitions are assigned
+        for (MessageListenerContainer messageListenerContainer : kafkaListenerEndpointRegistry
+                .getListenerContainers()) {
+            ContainerTestUtils.waitForAssignment(messageListenerContainer,
+                    embeddedKafka.getPartitionsPerTopic());
+        }
+    }
+}
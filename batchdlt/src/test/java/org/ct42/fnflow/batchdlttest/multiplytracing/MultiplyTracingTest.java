@@ -0,0 +1,234 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlttest.multiplytracing;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.ct42.fnflow.batchdlt.BatchElement;
+import org.ct42.fnflow.batchdlt.MessageTracing;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * @author Claas Thiele
+ */
+@SpringBootTest
+@EmbeddedKafka(bootstrapServersProperty = "spring.cloud.stream.kafka.binder.brokers", partitions = 1)
+@TestPropertySource(properties = {
+        "spring.cloud.function.definition=fnFlowComposedFnBean",
+        "spring.cloud.stream.default.group=test",
+        "org.ct42.fnflow.function.definition=jtrace+jecho|jtracebatch",
+        "org.ct42.fnflow.default.batch.size=10",
+        "org.ct42.fnflow.tracing.sampling-probability=1.0"
+})
+public class MultiplyTracingTest {
+    public static final String IN_TOPIC = "fnFlowComposedFnBean-in-0";
+    public static final String OUT_TOPIC = "fnFlowComposedFnBean-out-0";
+    public static final String DLT_TOPIC = "fnFlowComposedFnBean-out-1";
+
+    private static final Queue<Observation.Context> STOPPED = new ConcurrentLinkedQueue<>();
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafka;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry;
+
+    private KafkaTemplate<String, String> template;
+    private final BlockingQueue<ConsumerRecord<String, String>> inRecords = new LinkedBlockingQueue<>();
+    private final BlockingQueue<ConsumerRecord<String, String>> errRecords = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    public void setUp() {
+        setupProducer();
+        setupConsumer(inRecords, OUT_TOPIC);
+        setupConsumer(errRecords, DLT_TOPIC);
+    }
+
+    @Test
+    void testMessageObservationIsStoppedAfterAllDerivedMessages() throws Exception {
+        template.sendDefault("{\"text\":\"T0\"}");
+        template.sendDefault("{\"text\":\"T1\"}");
+        template.sendDefault("{\"text\":\"T2\"}");
+
+        for (int i = 0; i < 5; i++) {
+            then(inRecords.poll(10, TimeUnit.SECONDS)).isNotNull();
+        }
+        then(errRecords.poll(10, TimeUnit.SECONDS)).isNotNull();
+        Thread.sleep(500);
+
+        List<Observation.Context> stopped = new ArrayList<>(STOPPED);
+        List<Observation.Context> messages = named(MessageTracing.MESSAGE_OBSERVATION);
+        then(messages).hasSize(3);
+        then(messages).filteredOn(c -> c.getError() != null).hasSize(1);
+
+        List<Observation.Context> stages = named(MessageTracing.STAGE_OBSERVATION);
+        then(wrapper(stages, "multiply")).hasSize(6);
+        then(wrapper(stages, "batch-wait")).hasSize(5);
+        then(stages).allSatisfy(c -> then(messages).contains((Observation.Context) c.getParentObservation().getContextView()));
+
+        List<Observation.Context> sends = named(MessageTracing.SEND_OBSERVATION);
+        then(sends).extracting(c -> c.getLowCardinalityKeyValue("destination").getValue())
+                .containsExactlyInAnyOrder("output", "output", "output", "output", "output", "dlt");
+        then(sends).allSatisfy(c -> then(stopped.indexOf(c.getParentObservation().getContextView()))
+                .isGreaterThan(stopped.indexOf(c)));
+    }
+
+    private static List<Observation.Context> named(String name) {
+        return STOPPED.stream().filter(c -> name.equals(c.getName())).toList();
+    }
+
+    private static List<Observation.Context> wrapper(List<Observation.Context> stages, String wrapper) {
+        return stages.stream().filter(c -> wrapper.equals(c.getLowCardinalityKeyValue("wrapper").getValue())).toList();
+    }
+
+    @SpringBootApplication
+    @ComponentScan
+    protected static class TestConfiguration {
+        @Bean
+        ObservationRegistry observationRegistry() {
+            ObservationRegistry registry = ObservationRegistry.create();
+            registry.observationConfig().observationHandler(new ObservationHandler<>() {
+                @Override
+                public void onStop(Observation.Context context) {
+                    STOPPED.add(context);
+                }
+
+                @Override
+                public boolean supportsContext(Observation.Context context) {
+                    return true;
+                }
+            });
+            return registry;
+        }
+    }
+
+    @Component("jtrace")
+    protected final static class TraceFun implements Function<JsonNode, JsonNode> {
+        @Override
+        public JsonNode apply(JsonNode n) {
+            String s = n.get("text").textValue();
+            if (s.contains("T1")) throw new RuntimeException("ERR");
+            ((ObjectNode)n).put("text", "MO: " + s);
+            return n;
+        }
+    }
+
+    @Component("jecho")
+    protected final static class EchoFun implements Function<JsonNode, JsonNode> {
+        @Override
+        public JsonNode apply(JsonNode n) {
+            return n;
+        }
+    }
+
+    @Component("jtracebatch")
+    protected final static class TraceBatchFun implements Function<List<BatchElement>, List<BatchElement>> {
+        @Override
+        public List<BatchElement> apply(List<BatchElement> b) {
+            b.forEach(e -> e.processWithOutput(e.getInput()));
+            return b;
+        }
+    }
+
+    private void setupConsumer(BlockingQueue<ConsumerRecord<String, String>> queue, String topic) {
+        // set up the Kafka consumer properties
+        Map<String, Object> consumerProperties =
+                KafkaTestUtils.consumerProps("sender", "false", embeddedKafka);
+
+        // create a Kafka consumer factory
+        DefaultKafkaConsumerFactory<String, String> consumerFactory =
+                new DefaultKafkaConsumerFactory<>(consumerProperties);
+
+        // set the topic that needs to be consumed
+        ContainerProperties containerProperties =
+                new ContainerProperties(topic);
+
+        // create a Kafka MessageListenerContainer
+        KafkaMessageListenerContainer<String, String> inContainer =
+                new KafkaMessageListenerContainer<>(consumerFactory, containerProperties);
+
+        // setup a Kafka message listener
+        inContainer.setupMessageListener((MessageListener<String, String>) queue::add);
+
+        // start the container and underlying message listener
+        inContainer.start();
+
+        // wait until the container has the required number of assigned partitions
+        ContainerTestUtils.waitForAssignment(inContainer, 1);
+    }
+
+    private void setupProducer() {
+        // set up the Kafka producer properties
+        Map<String, Object> senderProperties =
+                KafkaTestUtils.producerProps(
+                        embeddedKafka.getBrokersAsString());
+
+        // create a Kafka producer factory
+        ProducerFactory<String, String> producerFactory =
+                new DefaultKafkaProducerFactory<>(
+                        senderProperties);
+
+        // create a Kafka template
+        template = new KafkaTemplate<>(producerFactory);
+        // set the default topic to send to
+        template.setDefaultTopic(IN_TOPIC);
+
+        // wait until the partitions are assigned
+        for (MessageListenerContainer messageListenerContainer : kafkaListenerEndpointRegistry
+                .getListenerContainers()) {
+            ContainerTestUtils.waitForAssignment(messageListenerContainer,
+                    embeddedKafka.getPartitionsPerTopic());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchdlttest.startup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Function;
+
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+
+/**
+ * @author Claas Thiele
+ */
+@EmbeddedKafka(bootstrapServersProperty = "spring.cloud.stream.kafka.binder.brokers")
+public class StartupValidationTest {
+    @Test
+    void testUnknownFunctionFailsStartup() {
+        thenThrownBy(() -> new SpringApplicationBuilder(TestConfiguration.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        "spring.cloud.function.definition=fnFlowComposedFnBean",
+                        "spring.cloud.stream.default.group=test",
+                        "org.ct42.fnflow.function.definition=jknown|junknown")
+                .run()
+                .close())
+                .hasStackTraceContaining("No matching bean found for name junknown");
+    }
+
+    @SpringBootApplication
+    @ComponentScan
+    protected static class TestConfiguration {
+    }
+
+    @Component("jknown")
+    protected final static class Known implements Function<JsonNode, JsonNode> {
+        @Override
+        public JsonNode apply(JsonNode n) {
+            return n;
+        }
+    }
+}
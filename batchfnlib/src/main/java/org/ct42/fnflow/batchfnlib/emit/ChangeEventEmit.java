@@ -20,6 +20,8 @@ import com.fasterxml.jackson.core.JsonPointer;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.ct42.fnflow.batchdlt.HeaderAware;
 import org.ct42.fnflow.cfgfns.ConfigurableFunction;
+import org.ct42.fnflow.fnapi.NonMutating;
+import org.ct42.fnflow.fnapi.PointerAware;
 import org.opensearch.common.UUIDs;
 import org.springframework.aot.hint.MemberCategory;
 import org.springframework.aot.hint.annotation.RegisterReflection;
@@ -27,7 +29,10 @@ import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.stereotype.Component;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -35,7 +40,7 @@ import java.util.Map;
  */
 @Component("ChangeEventEmit")
 @RegisterReflection(classes = JsonPointer.class, memberCategories = MemberCategory.INVOKE_PUBLIC_METHODS)
-public class ChangeEventEmit extends ConfigurableFunction<JsonNode, JsonNode, EmitProperties> implements HeaderAware {
+public class ChangeEventEmit extends ConfigurableFunction<JsonNode, JsonNode, EmitProperties> implements HeaderAware, NonMutating, PointerAware {
     @Override
     public JsonNode apply(JsonNode input) {
         JsonNode contentNode = input.at(properties.getEventContent());
@@ -71,4 +76,21 @@ public class ChangeEventEmit extends ConfigurableFunction<JsonNode, JsonNode, Em
 
         return headers;
     }
+
+    @Override
+    public Collection<JsonPointer> pointers() {
+        List<JsonPointer> pointers = new ArrayList<>(List.of(properties.getEventContent()));
+        if(properties.getEventKey() != null) {
+            pointers.add(properties.getEventKey());
+        }
+        return pointers;
+    }
+
+    /**
+     * The output is the event content taken from the input.
+     */
+    @Override
+    public JsonPointer inputLocation(JsonPointer outputLocation) {
+        return properties.getEventContent().append(outputLocation);
+    }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchfnlib.localmatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.ct42.fnflow.batchdlt.PayloadCodec;
+
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+/**
+ * In memory index of entities, looked up by the configured keys.
+ * The entities are kept in the compact binary Smile format and parsed for each match, so every match gets its own tree.
+ * Written by a single thread, read concurrently.
+ *
+ * @author Claas Thiele
+ */
+class LocalIndex {
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final List<LocalMatchProperties.Key> keys;
+    private final List<Map<String, Set<String>>> postings = new ArrayList<>(); // per key: term to entity ids
+    private final Map<String, byte[]> documents = new ConcurrentHashMap<>();
+    private final Map<String, List<Set<String>>> indexedTerms = new HashMap<>(); // per entity the terms per key, writer only
+
+    LocalIndex(Collection<LocalMatchProperties.Key> keys) {
+        this.keys = List.copyOf(keys);
+        for(LocalMatchProperties.Key key : this.keys) {
+            postings.add(key.getMode() == LocalMatchProperties.Mode.PREFIX ? new ConcurrentSkipListMap<>() : new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Adds or replaces an entity.
+     */
+    void put(String id, JsonNode entity) throws IOException {
+        remove(id);
+        List<Set<String>> terms = new ArrayList<>(keys.size());
+        for(int k = 0; k < keys.size(); k++) {
+            Set<String> keyTerms = terms(entity.at(keys.get(k).getEntity()), keys.get(k).getMode());
+            for(String term : keyTerms) {
+                postings.get(k).computeIfAbsent(term, t -> ConcurrentHashMap.newKeySet()).add(id);
+            }
+            terms.add(keyTerms);
+        }
+        indexedTerms.put(id, terms);
+        documents.put(id, PayloadCodec.SMILE.write(entity));
+    }
+
+    void remove(String id) {
+        List<Set<String>> terms = indexedTerms.remove(id);
+        if(terms == null) {
+            return;
+        }
+        documents.remove(id);
+        for(int k = 0; k < keys.size(); k++) {
+            for(String term : terms.get(k)) {
+                Set<String> ids = postings.get(k).get(term);
+                if(ids != null) {
+                    ids.remove(id);
+                    if(ids.isEmpty()) postings.get(k).remove(term, ids);
+                }
+            }
+        }
+    }
+
+    int size() {
+        return documents.size();
+    }
+
+    /**
+     * @return the matching entities with the highest scores first, the score being the number of matching terms
+     */
+    ArrayNode lookup(JsonNode input, int maxMatches) throws IOException {
+        Map<String, Integer> scores = new LinkedHashMap<>();
+        for(int k = 0; k < keys.size(); k++) {
+            LocalMatchProperties.Key key = keys.get(k);
+            for(String term : terms(input.at(key.getInput()), key.getMode())) {
+                if(key.getMode() == LocalMatchProperties.Mode.PREFIX) {
+                    ((NavigableMap<String, Set<String>>) postings.get(k)).subMap(term, true, term + Character.MAX_VALUE, true)
+                            .values().forEach(ids -> ids.forEach(id -> scores.merge(id, 1, Integer::sum)));
+                } else {
+                    Set<String> ids = postings.get(k).get(term);
+                    if(ids != null) ids.forEach(id -> scores.merge(id, 1, Integer::sum));
+                }
+            }
+        }
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<>(scores.entrySet());
+        ranked.sort(Map.Entry.<String, Integer>comparingByValue().reversed()); // stable, keeps the order of equal scores
+        ArrayNode matches = JsonNodeFactory.instance.arrayNode(Math.min(ranked.size(), maxMatches));
+        for(Map.Entry<String, Integer> entry : ranked) {
+            if(matches.size() == maxMatches) {
+                break;
+            }
+            byte[] document = documents.get(entry.getKey());
+            if(document == null) { // removed concurrently
+                continue;
+            }
+            ObjectNode match = matches.addObject();
+            match.set("source", PayloadCodec.SMILE.read(document));
+            match.put("id", entry.getKey());
+            match.put("score", entry.getValue().doubleValue());
+        }
+        return matches;
+    }
+
+    /**
+     * @return the distinct terms of a value, each element of an array, objects are not indexed
+     */
+    static Set<String> terms(JsonNode value, LocalMatchProperties.Mode mode) {
+        Set<String> terms = new LinkedHashSet<>();
+        if(value.isArray()) {
+            value.forEach(element -> addTerms(element, mode, terms));
+        } else {
+            addTerms(value, mode, terms);
+        }
+        return terms;
+    }
+
+    private static void addTerms(JsonNode value, LocalMatchProperties.Mode mode, Set<String> terms) {
+        if(!value.isValueNode() || value.isNull()) {
+            return;
+        }
+        String text = value.asText();
+        switch (mode) {
+            case EXACT -> terms.add(text);
+            case NORMALIZED, PREFIX -> {
+                String normalized = normalize(text);
+                if(!normalized.isEmpty()) terms.add(normalized);
+            }
+            case TOKEN -> {
+                for(String token : TOKEN_SEPARATOR.split(normalize(text))) {
+                    if(!token.isEmpty()) terms.add(token);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the text in lower case, without accents and surrounding whitespace, repeated whitespace replaced by one blank
+     */
+    static String normalize(String text) {
+        String stripped = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFKD)).replaceAll("");
+        return WHITESPACE.matcher(stripped).replaceAll(" ").trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchfnlib.localmatch;
+
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.ct42.fnflow.batchdlt.BatchElement;
+import org.ct42.fnflow.batchdlt.PayloadCodec;
+import org.ct42.fnflow.cfgfns.ConfigurableFunction;
+import org.ct42.fnflow.fnapi.PointerAware;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.annotation.RegisterReflection;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.env.Environment;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Alternative to <code>Match</code> looking up the matches in an index held in memory by each instance,
+ * instead of searching OpenSearch. The index is read from the entity topic at startup and kept current by following the topic,
+ * the record key being the entity id and a record without value removing the entity.
+ * The startup is waiting until the topic is read up to its end, so the first batch is matched against all entities.
+ * The output has the same shape as the output of <code>Match</code>, the score being the number of matching key values.
+ *
+ * @author Claas Thiele
+ */
+@Slf4j
+@Component("LocalMatch")
+@RegisterReflection(classes = JsonPointer.class, memberCategories = MemberCategory.INVOKE_PUBLIC_METHODS)
+public class LocalMatch extends ConfigurableFunction<List<BatchElement>, List<BatchElement>, LocalMatchProperties>
+        implements PointerAware, InitializingBean, DisposableBean, BeanNameAware {
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(500);
+
+    private final Environment environment;
+    private String name;
+    private LocalIndex index;
+    private Thread hydrator;
+    private volatile boolean running;
+    private volatile Consumer<String, byte[]> consumer;
+    private volatile Exception failure;
+
+    public LocalMatch(Environment environment) {
+        this.environment = environment;
+    }
+
+    @Override
+    public void setBeanName(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws InterruptedException {
+        if(properties == null) {
+            return;
+        }
+        index = new LocalIndex(properties.getKeys().values());
+        CountDownLatch hydrated = new CountDownLatch(1);
+        running = true;
+        hydrator = new Thread(() -> follow(hydrated), "localmatch-" + name);
+        hydrator.setDaemon(true);
+        hydrator.start();
+        boolean caughtUp = hydrated.await(properties.getHydrationTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        if(failure != null) {
+            throw new IllegalStateException("Reading topic " + properties.getTopic() + " failed for " + name, failure);
+        }
+        if(!caughtUp) {
+            destroy();
+            throw new IllegalStateException("Topic " + properties.getTopic() + " not read up to its end within "
+                    + properties.getHydrationTimeout() + " for " + name);
+        }
+        log.info("Hydrated {} with {} entities from topic {}", name, index.size(), properties.getTopic());
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        Consumer<String, byte[]> c = consumer;
+        if(c != null) c.wakeup();
+        if(hydrator != null) hydrator.join(POLL_TIMEOUT.multipliedBy(4).toMillis());
+    }
+
+    @Override
+    public List<BatchElement> apply(List<BatchElement> input) {
+        for(BatchElement element : input) {
+            try {
+                ObjectNode result = JsonNodeFactory.instance.objectNode();
+                result.set("input", element.getInput());
+                result.set("matches", index.lookup(element.getInput(), properties.getMaxMatches()));
+                element.processWithOutput(result);
+            } catch (Exception e) {
+                element.processWithError(e);
+            }
+        }
+        return input;
+    }
+
+    /**
+     * Reads the topic from the beginning and keeps following it, counting down the latch when the end is reached.
+     */
+    private void follow(CountDownLatch hydrated) {
+        Map<String, Object> config = Map.of(
+                ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers(),
+                ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false,
+                ConsumerConfig.CLIENT_ID_CONFIG, "localmatch-" + name + "-" + UUID.randomUUID());
+        try (Consumer<String, byte[]> c = new DefaultKafkaConsumerFactory<>(config, new StringDeserializer(), new ByteArrayDeserializer())
+                .createConsumer()) {
+            consumer = c;
+            List<TopicPartition> partitions = partitions(c, hydrated);
+            if(partitions.isEmpty()) {
+                return;
+            }
+            c.assign(partitions);
+            c.seekToBeginning(partitions);
+            Map<TopicPartition, Long> end = new HashMap<>(c.endOffsets(partitions));
+            while (running) {
+                for(ConsumerRecord<String, byte[]> rec : c.poll(POLL_TIMEOUT)) {
+                    update(rec);
+                }
+                if(!end.isEmpty()) {
+                    end.entrySet().removeIf(e -> c.position(e.getKey()) >= e.getValue());
+                    if(end.isEmpty()) hydrated.countDown();
+                }
+            }
+        } catch (WakeupException e) {
+            // stopped by destroy
+        } catch (Exception e) {
+            if(hydrated.getCount() > 0) {
+                failure = e;
+                hydrated.countDown();
+            } else {
+                log.error("Following topic {} failed for {}, the matches are not updated anymore", properties.getTopic(), name, e);
+            }
+        }
+    }
+
+    /**
+     * @return the partitions of the topic, waiting for the topic to be created; the empty index is hydrated in the meantime
+     */
+    private List<TopicPartition> partitions(Consumer<String, byte[]> c, CountDownLatch hydrated) throws InterruptedException {
+        while (running) {
+            List<PartitionInfo> infos = c.partitionsFor(properties.getTopic());
+            if(infos != null && !infos.isEmpty()) {
+                return infos.stream().map(info -> new TopicPartition(info.topic(), info.partition())).toList();
+            }
+            hydrated.countDown();
+            Thread.sleep(POLL_TIMEOUT.toMillis());
+        }
+        return List.of();
+    }
+
+    private void update(ConsumerRecord<String, byte[]> rec) {
+        if(rec.key() == null) {
+            log.warn("Ignoring entity without key at offset {} of {}-{}", rec.offset(), rec.topic(), rec.partition());
+            return;
+        }
+        try {
+            if(rec.value() == null) {
+                index.remove(rec.key());
+                return;
+            }
+            Header contentType = rec.headers().lastHeader(MessageHeaders.CONTENT_TYPE);
+            PayloadCodec codec = PayloadCodec.of(contentType == null ? null : contentType.value(), PayloadCodec.JSON);
+            JsonNode entity = codec.read(rec.value());
+            if(entity.isObject()) {
+                index.put(rec.key(), entity);
+            }
+        } catch (Exception e) {
+            log.warn("Ignoring invalid entity {} at offset {} of {}-{}", rec.key(), rec.offset(), rec.topic(), rec.partition(), e);
+        }
+    }
+
+    private String bootstrapServers() {
+        return environment.getProperty("spring.cloud.stream.kafka.binder.brokers",
+                environment.getProperty("spring.kafka.bootstrap-servers", "localhost:9092"));
+    }
+
+    @Override
+    public Collection<JsonPointer> pointers() {
+        return properties.getKeys().values().stream().map(LocalMatchProperties.Key::getInput).toList();
+    }
+
+    /**
+     * The output is carrying the input in field <code>input</code>, the matches are not taken from the input.
+     */
+    @Override
+    public JsonPointer inputLocation(JsonPointer outputLocation) {
+        if("input".equals(outputLocation.getMatchingProperty())) {
+            return outputLocation.tail();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchfnlib.localmatch;
+
+import com.fasterxml.jackson.core.JsonPointer;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import lombok.Data;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Claas Thiele
+ */
+@Data
+@Validated
+public class LocalMatchProperties {
+    /**
+     * Topic of the entities to be matched, keyed by entity id, e.g. written by <code>ChangeEventEmit</code>.
+     */
+    @NotEmpty
+    private String topic;
+
+    /**
+     * Keys to look up the entities by, an entity matching if any of the keys matches.
+     */
+    @NotEmpty
+    @Valid
+    private Map<String, Key> keys = new HashMap<>();
+
+    /**
+     * Maximum number of matches per input, the matches with the highest score are kept.
+     */
+    @Positive
+    private int maxMatches = 100;
+
+    /**
+     * Maximum time to wait at startup for the entity topic to be read up to its end.
+     */
+    @NotNull
+    private Duration hydrationTimeout = Duration.ofMinutes(5);
+
+    @Data
+    public static class Key {
+        /**
+         * Value of the entity to be indexed, an array indexing each element.
+         */
+        @NotNull
+        private JsonPointer entity;
+
+        /**
+         * Value of the input to be looked up, an array looking up each element.
+         */
+        @NotNull
+        private JsonPointer input;
+
+        @NotNull
+        private Mode mode = Mode.EXACT;
+    }
+
+    public enum Mode {
+        /** the values are equal */
+        EXACT,
+        /** the values are equal, ignoring case, accents and surrounding or repeated whitespace */
+        NORMALIZED,
+        /** the normalized input value is a prefix of the normalized entity value */
+        PREFIX,
+        /** the normalized values share a token, tokens being separated by any character not a letter or digit */
+        TOKEN
+    }
+}
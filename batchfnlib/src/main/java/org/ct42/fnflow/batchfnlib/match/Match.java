@@ -21,10 +21,18 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import lombok.RequiredArgsConstructor;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Weigher;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
 import org.ct42.fnflow.batchdlt.BatchElement;
+import org.ct42.fnflow.batchdlt.NonBlocking;
 import org.ct42.fnflow.cfgfns.ConfigurableFunction;
+import org.ct42.fnflow.fnapi.PointerAware;
 import org.opensearch.client.json.JsonData;
+import org.opensearch.client.opensearch.OpenSearchAsyncClient;
 import org.opensearch.client.opensearch.OpenSearchClient;
 import org.opensearch.client.opensearch.core.MsearchTemplateRequest;
 import org.opensearch.client.opensearch.core.MsearchTemplateResponse;
@@ -32,66 +40,346 @@ import org.opensearch.client.opensearch.core.msearch.MultiSearchResponseItem;
 import org.opensearch.client.opensearch.core.msearch.MultisearchHeader;
 import org.opensearch.client.opensearch.core.msearch_template.RequestItem;
 import org.opensearch.client.opensearch.core.msearch_template.TemplateConfig;
+import org.opensearch.client.opensearch.core.search.Hit;
 import org.springframework.aot.hint.MemberCategory;
 import org.springframework.aot.hint.annotation.RegisterReflection;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 /**
+ * Searches the matches of each input by calling a search template, all inputs of a batch in one multi search request.
+ * Inputs resulting to the same template call are searched once, the matches are copied for each input.
+ * A search already sent by a concurrent batch is not sent again, the batch waits for its matches.
+ * The searches are sent with the async client, so batches are processed without blocking a thread, see {@link NonBlocking}.
+ * Transient failures are retried with backoff, requests rejected or too large are split in half, see {@link RetryPolicy}.
+ * The source filter, size and minimum score are passed to the search template as params, to be applied by OpenSearch.
+ * With a routing configured, each search is routed by the routing value of its input, so only the shards concerned are searched.
+ * With the cache enabled, the matches are cached per template call, inputs with cached matches are not searched.
+ * The cache is registered with the MeterRegistry, if there is one, named by the function instance.
+ *
  * @author Claas Thiele
  */
+@Slf4j
 @Component("Match")
-@RequiredArgsConstructor
 @RegisterReflection(classes = JsonPointer.class, memberCategories = MemberCategory.INVOKE_PUBLIC_METHODS)
-public class Match extends ConfigurableFunction<List<BatchElement>, List<BatchElement>, MatchProperties> {
-    private final OpenSearchClient client;
+public class Match extends ConfigurableFunction<List<BatchElement>, List<BatchElement>, MatchProperties>
+        implements NonBlocking, PointerAware, InitializingBean, BeanNameAware {
+    private final OpenSearchAsyncClient client;
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+    private final SearchFlights flights = new SearchFlights();
+    private String name;
+    private Cache<MatchRequestKey, ArrayNode> cache;
+    private RetryPolicy retryPolicy;
+    private Map<String, Object> constantParams;
+
+    /**
+     * @param asyncClient the client to search with, if not available an async client sharing the transport of the client
+     */
+    public Match(OpenSearchClient client, ObjectProvider<OpenSearchAsyncClient> asyncClient, ObjectProvider<MeterRegistry> meterRegistry) {
+        this.client = asyncClient.getIfAvailable(() -> new OpenSearchAsyncClient(client._transport(), client._transportOptions()));
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void setBeanName(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if(properties == null) {
+            return;
+        }
+        retryPolicy = new RetryPolicy(properties.getRetry());
+        Map<String, Object> filterParams = new HashMap<>();
+        if(!properties.getSourceIncludes().isEmpty()) filterParams.put("sourceIncludes", List.copyOf(properties.getSourceIncludes()));
+        if(!properties.getSourceExcludes().isEmpty()) filterParams.put("sourceExcludes", List.copyOf(properties.getSourceExcludes()));
+        if(properties.getSize() != null) filterParams.put("size", properties.getSize());
+        if(properties.getMinScore() != null) filterParams.put("minScore", properties.getMinScore());
+        for(String param : filterParams.keySet()) {
+            if(properties.getLiteralParams().containsKey(param) || properties.getParamsFromInput().containsKey(param)) {
+                throw new IllegalStateException("Param " + param + " of " + name
+                        + " is set by the property of the same name and must not be configured as literal param or param from input");
+            }
+        }
+        Map<String, Object> params = new HashMap<>(properties.getLiteralParams());
+        params.putAll(filterParams);
+        constantParams = Map.copyOf(params);
+        if(!properties.getCache().isEnabled()) {
+            return;
+        }
+        MatchProperties.Cache cfg = properties.getCache();
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                .expireAfterWrite(cfg.getTtl())
+                .recordStats();
+        if(cfg.getMaxWeight() > 0) {
+            Weigher<MatchRequestKey, ArrayNode> weigher = (key, matches) -> 1 + matches.size();
+            cache = builder.maximumWeight(cfg.getMaxWeight()).weigher(weigher).build();
+        } else {
+            cache = builder.maximumSize(cfg.getMaxEntries()).build();
+        }
+        meterRegistry.ifAvailable(registry -> CaffeineCacheMetrics.monitor(registry, cache, name));
+    }
 
     @Override
     public List<BatchElement> apply(List<BatchElement> input) {
-        List<RequestItem> requestItems = new ArrayList<>();
-        MultisearchHeader emptyHeader = new MultisearchHeader.Builder().build();
-        input.forEach(batchElement -> {
+        return applyAsync(input).join();
+    }
+
+    @Override
+    public CompletableFuture<List<BatchElement>> applyAsync(List<BatchElement> input) {
+        Map<MatchRequestKey, List<BatchElement>> groups = new LinkedHashMap<>();
+        input.forEach(batchElement -> groups.computeIfAbsent(key(batchElement.getInput()), k -> new ArrayList<>(1)).add(batchElement));
+        List<MatchRequestKey> requested = new ArrayList<>(groups.size());
+        List<CompletableFuture<?>> calls = new ArrayList<>();
+        groups.forEach((key, elements) -> {
+            ArrayNode cached = cache == null ? null : cache.getIfPresent(key);
+            if(cached != null) {
+                elements.forEach(elem -> elem.processWithOutput(result(elem.getInput(), cached.deepCopy())));
+                return;
+            }
+            SearchFlights.Flight flight = flights.join(key);
+            if(flight == null) {
+                requested.add(key);
+            } else {
+                calls.add(flight.result().handle((shared, error) -> {
+                    if(error != null) {
+                        elements.forEach(elem -> elem.processWithError(unwrap(error)));
+                    } else {
+                        elements.forEach(elem -> elem.processWithOutput(result(elem.getInput(), shared.deepCopy())));
+                    }
+                    return null;
+                }));
+            }
+        });
+        calls.add(search(requested, groups));
+        return CompletableFuture.allOf(calls.toArray(CompletableFuture[]::new)).thenApply(v -> input);
+    }
+
+    /**
+     * Sends one search per key, completing the searches in flight for concurrent batches.
+     */
+    private CompletableFuture<Void> search(List<MatchRequestKey> keys, Map<MatchRequestKey, List<BatchElement>> groups) {
+        if(keys.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Set<MatchRequestKey> pending = ConcurrentHashMap.newKeySet();
+        pending.addAll(keys);
+        return search(keys, groups, pending, 1).exceptionally(e -> {
+            new ArrayList<>(pending).forEach(key -> fail(key, groups, pending, unwrap(e)));
+            return null;
+        });
+    }
+
+    /**
+     * Splits the searches in half on size or rejection errors and retries transient failures.
+     * Searches failing on their own are retried without the others.
+     */
+    private CompletableFuture<Void> search(List<MatchRequestKey> keys, Map<MatchRequestKey, List<BatchElement>> groups,
+                                           Set<MatchRequestKey> pending, int attempt) {
+        CompletableFuture<MsearchTemplateResponse<JsonNode>> call;
+        try {
+            call = client.msearchTemplate(request(keys), JsonNode.class);
+        } catch (Exception e) {
+            call = CompletableFuture.failedFuture(e);
+        }
+        return call.handle((response, error) -> error == null
+                        ? received(keys, groups, pending, attempt, response)
+                        : failed(keys, groups, pending, attempt, unwrap(error)))
+                .thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<Void> failed(List<MatchRequestKey> keys, Map<MatchRequestKey, List<BatchElement>> groups,
+                                           Set<MatchRequestKey> pending, int attempt, Throwable e) {
+        int status = RetryPolicy.status(e);
+        if(RetryPolicy.isSplit(status) && keys.size() > 1) {
+            CompletableFuture<Void> ready = CompletableFuture.completedFuture(null);
+            int next = attempt;
+            if(status == 429) { // rejected, back off before splitting
+                if(!retryPolicy.canRetry(attempt)) {
+                    keys.forEach(key -> fail(key, groups, pending, e));
+                    return ready;
+                }
+                ready = retryPolicy.backoff(attempt);
+                next++;
+            }
+            log.debug("Splitting {} searches after status {}", keys.size(), status);
+            int half = keys.size() / 2;
+            int nextAttempt = next;
+            return ready.thenCompose(v -> search(keys.subList(0, half), groups, pending, nextAttempt))
+                    .thenCompose(v -> search(keys.subList(half, keys.size()), groups, pending, nextAttempt));
+        }
+        if(RetryPolicy.isTransient(status, e) && retryPolicy.canRetry(attempt)) {
+            log.debug("Retrying {} searches after attempt {} failed: {}", keys.size(), attempt, e.getMessage());
+            return retryPolicy.backoff(attempt).thenCompose(v -> search(keys, groups, pending, attempt + 1));
+        }
+        keys.forEach(key -> fail(key, groups, pending, e));
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private CompletableFuture<Void> received(List<MatchRequestKey> keys, Map<MatchRequestKey, List<BatchElement>> groups,
+                                             Set<MatchRequestKey> pending, int attempt, MsearchTemplateResponse<JsonNode> response) {
+        List<MatchRequestKey> retried = new ArrayList<>();
+        for(int i = 0; i < keys.size(); i++) {
+            MatchRequestKey key = keys.get(i);
+            if(i >= response.responses().size()) {
+                fail(key, groups, pending, new IllegalStateException("Got " + response.responses().size() + " responses for " + keys.size() + " searches"));
+                continue;
+            }
+            MultiSearchResponseItem<JsonNode> r = response.responses().get(i);
+            if(r.isResult()) {
+                complete(key, groups, pending, matches(r.result().hits().hits()));
+            } else if(RetryPolicy.isTransient(r.failure().status()) && retryPolicy.canRetry(attempt)) {
+                retried.add(key);
+            } else {
+                fail(key, groups, pending, new TemplateMatchError(r.failure().error().reason()));
+            }
+        }
+        if(retried.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        log.debug("Retrying {} failed searches after attempt {}", retried.size(), attempt);
+        return retryPolicy.backoff(attempt).thenCompose(v -> search(retried, groups, pending, attempt + 1));
+    }
+
+    /**
+     * The sources are the trees deserialized by the client, referenced by the matches.
+     * Only the source filter applied by the search template reduces the size of the sources.
+     *
+     * @return the hits within the size and minimum score, in case the search template is not applying them
+     */
+    private ArrayNode matches(List<Hit<JsonNode>> hits) {
+        Integer size = properties.getSize();
+        Double minScore = properties.getMinScore();
+        ArrayNode matches = JsonNodeFactory.instance.arrayNode(size == null ? hits.size() : Math.min(size, hits.size()));
+        for(Hit<JsonNode> hit : hits) {
+            if(size != null && matches.size() == size) {
+                break;
+            }
+            if(minScore != null && (hit.score() == null || hit.score() < minScore)) {
+                continue;
+            }
+            ObjectNode matchResult = matches.addObject();
+            matchResult.set("source", hit.source());
+            matchResult.put("id", hit.id());
+            matchResult.put("score", hit.score());
+        }
+        return matches;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private MsearchTemplateRequest request(List<MatchRequestKey> keys) {
+        List<RequestItem> requestItems = new ArrayList<>(keys.size());
+        MultisearchHeader unroutedHeader = header(null);
+        keys.forEach(key -> {
             Map<String, JsonData> targetParams = new HashMap<>();
-            properties.getParamsFromInput().forEach((key, value) -> targetParams.put(key, JsonData.of(batchElement.getInput().at(value))));
-            properties.getLiteralParams().forEach((key, value) -> targetParams.put(key, JsonData.of(value)));
+            key.params().forEach((name, value) -> targetParams.put(name, JsonData.of(value)));
             requestItems.add(new RequestItem.Builder()
-                    .header(emptyHeader)
+                    .header(key.routing() == null ? unroutedHeader : header(key.routing()))
                     .body(new TemplateConfig.Builder()
-                            .id(properties.getTemplate())
+                            .id(key.template())
                             .params(targetParams)
                             .build())
-                .build());
+                    .build());
         });
-        try {
-            MsearchTemplateResponse<JsonNode> response = client.msearchTemplate(
-                    new MsearchTemplateRequest.Builder()
-                            .searchTemplates(requestItems)
-                            .index(properties.getIndex())
-                            .build(),
-                    JsonNode.class);
-            for(int i = 0; i < response.responses().size(); i++) {
-                MultiSearchResponseItem<JsonNode> r = response.responses().get(i);
-                if(r.isResult()) {
-                    ObjectNode result = JsonNodeFactory.instance.objectNode();
-                    result.set("input", input.get(i).getInput());
-                    ArrayNode matches = JsonNodeFactory.instance.arrayNode();
-                    result.set("matches", matches);
-                    r.result().hits().hits().forEach(hit -> {
-                        ObjectNode matchResult = JsonNodeFactory.instance.objectNode();
-                        matchResult.set("source", hit.source());
-                        matchResult.put("id", hit.id());
-                        matchResult.put("score", hit.score());
-                        matches.add(matchResult);
-                    });
-                    input.get(i).processWithOutput(result);
-                } else {
-                    input.get(i).processWithError(new TemplateMatchError(r.failure().error().reason()));
-                }
-            }
-        } catch (Exception e) {
-            input.forEach(elem -> elem.processWithError(e));
+        return new MsearchTemplateRequest.Builder()
+                .searchTemplates(requestItems)
+                .index(properties.getIndex())
+                .build();
+    }
+
+    private MultisearchHeader header(String routing) {
+        return new MultisearchHeader.Builder()
+                .routing(routing)
+                .preference(properties.getPreference())
+                .build();
+    }
+
+    private void complete(MatchRequestKey key, Map<MatchRequestKey, List<BatchElement>> groups,
+                          Set<MatchRequestKey> pending, ArrayNode matches) {
+        if(cache != null) {
+            cache.put(key.copy(), matches.deepCopy());
+        }
+        pending.remove(key);
+        flights.complete(key, matches);
+        List<BatchElement> elements = groups.get(key);
+        for(int i = 0; i < elements.size(); i++) { // the last element gets the original matches
+            BatchElement elem = elements.get(i);
+            elem.processWithOutput(result(elem.getInput(), i < elements.size() - 1 ? matches.deepCopy() : matches));
+        }
+    }
+
+    private void fail(MatchRequestKey key, Map<MatchRequestKey, List<BatchElement>> groups,
+                      Set<MatchRequestKey> pending, Throwable error) {
+        pending.remove(key);
+        flights.fail(key, error);
+        groups.get(key).forEach(elem -> elem.processWithError(error));
+    }
+
+    private static ObjectNode result(JsonNode input, ArrayNode matches) {
+        ObjectNode result = JsonNodeFactory.instance.objectNode();
+        result.set("input", input);
+        result.set("matches", matches);
+        return result;
+    }
+
+    /**
+     * @return the key of the template call for the input, referencing the param values of the input
+     */
+    private MatchRequestKey key(JsonNode input) {
+        Map<String, Object> params = new HashMap<>();
+        properties.getParamsFromInput().forEach((key, value) -> params.put(key, input.at(value)));
+        params.putAll(constantParams);
+        return new MatchRequestKey(properties.getTemplate(), properties.getIndex(), routing(input), params);
+    }
+
+    /**
+     * @return the routing value of the input, array elements separated by comma, <code>null</code> to search all shards
+     */
+    private String routing(JsonNode input) {
+        if(properties.getRouting() == null) {
+            return null;
+        }
+        JsonNode value = input.at(properties.getRouting());
+        if(value.isArray()) {
+            StringJoiner routing = new StringJoiner(",");
+            value.forEach(element -> {
+                if(element.isValueNode() && !element.isNull()) routing.add(element.asText());
+            });
+            return routing.length() == 0 ? null : routing.toString();
+        }
+        return value.isValueNode() && !value.isNull() ? value.asText() : null;
+    }
+
+    @Override
+    public Collection<JsonPointer> pointers() {
+        if(properties.getRouting() != null) {
+            List<JsonPointer> pointers = new ArrayList<>(properties.getParamsFromInput().values());
+            pointers.add(properties.getRouting());
+            return pointers;
+        }
+        return properties.getParamsFromInput().values();
+    }
+
+    /**
+     * The output is carrying the input in field <code>input</code>, the matches are not taken from the input.
+     */
+    @Override
+    public JsonPointer inputLocation(JsonPointer outputLocation) {
+        if("input".equals(outputLocation.getMatchingProperty())) {
+            return outputLocation.tail();
         }
-        return input;
+        return null;
     }
 }
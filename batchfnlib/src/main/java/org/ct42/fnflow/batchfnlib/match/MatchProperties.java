@@ -17,15 +17,27 @@
 package org.ct42.fnflow.batchfnlib.match;
 
 import com.fasterxml.jackson.core.JsonPointer;
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
 import jakarta.validation.constraints.Pattern;
 import lombok.Data;
 import org.springframework.validation.annotation.Validated;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
+ * The source filter, size and minimum score are passed to the search template as the params
+ * <code>sourceIncludes</code>, <code>sourceExcludes</code>, <code>size</code> and <code>minScore</code>.
+ * The source filter only takes effect if the stored search template references these params,
+ * size and minimum score are applied to the hits returned anyway.
+ * They must not be configured as literal param or param from input at the same time.
+ *
  * @author Claas Thiele
  */
 @Data
@@ -39,4 +51,86 @@ public class MatchProperties {
 
     Map<String, JsonPointer> paramsFromInput = new HashMap<>();
     Map<String, String> literalParams = new HashMap<>();
+
+    /**
+     * Value of the input to route the search by, to search only the shard the matching documents were indexed with the same routing.
+     * An array is routing to the shards of all its elements; inputs without a value are searched on all shards.
+     */
+    private JsonPointer routing;
+
+    /**
+     * Preference of the shard copies to be searched, e.g. <code>_local</code> or a custom string.
+     */
+    private String preference;
+
+    /**
+     * Fields of the matched documents to be returned, passed to the search template as param <code>sourceIncludes</code>.
+     */
+    private List<String> sourceIncludes = new ArrayList<>();
+
+    /**
+     * Fields of the matched documents not to be returned, passed to the search template as param <code>sourceExcludes</code>.
+     */
+    private List<String> sourceExcludes = new ArrayList<>();
+
+    /**
+     * Maximum number of matches per input, passed to the search template as param <code>size</code>.
+     */
+    @Positive
+    private Integer size;
+
+    /**
+     * Minimum score of the matches, passed to the search template as param <code>minScore</code>.
+     */
+    private Double minScore;
+
+    @Valid
+    private Cache cache = new Cache();
+
+    @Valid
+    private Retry retry = new Retry();
+
+    /**
+     * Cache of the matches per template call, disabled by default.
+     */
+    @Data
+    public static class Cache {
+        private boolean enabled = false;
+
+        /**
+         * Time after which a cached result expires, counted from the search.
+         */
+        @NotNull
+        private Duration ttl = Duration.ofSeconds(60);
+
+        /**
+         * Maximum number of cached results, used if no maximum weight is set.
+         */
+        @Positive
+        private long maxEntries = 10000;
+
+        /**
+         * Maximum weight of all cached results, a result weighing one plus the number of its matches.
+         * Takes precedence over the maximum number of entries if set.
+         */
+        private long maxWeight = 0;
+    }
+
+    /**
+     * Retry of transient search failures with exponential backoff.
+     */
+    @Data
+    public static class Retry {
+        /**
+         * Maximum number of attempts of a search, 1 disables retries.
+         */
+        @Positive
+        private int maxAttempts = 4;
+
+        @NotNull
+        private Duration initialBackoff = Duration.ofMillis(100);
+
+        @NotNull
+        private Duration maxBackoff = Duration.ofSeconds(5);
+    }
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchfnlib.match;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Identifies a search template call, the params being the resolved values from the input and the literal params.
+ * Calls with a different routing are not the same call, as the routing is restricting the shards searched.
+ * The param values taken from the input are referenced, a key kept beyond the batch has to be copied.
+ *
+ * @author Claas Thiele
+ */
+record MatchRequestKey(String template, String index, String routing, Map<String, Object> params) {
+    /**
+     * @return a key with copies of the param values taken from the input
+     */
+    MatchRequestKey copy() {
+        Map<String, Object> copied = new HashMap<>(params);
+        copied.replaceAll((name, value) -> value instanceof JsonNode node ? node.deepCopy() : value);
+        return new MatchRequestKey(template, index, routing, copied);
+    }
+}
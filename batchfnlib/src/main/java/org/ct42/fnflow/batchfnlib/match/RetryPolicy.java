@@ -0,0 +1,88 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchfnlib.match;
+
+import org.opensearch.client.ResponseException;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides about retrying failed searches, based on the HTTP status of the failure.
+ * Rejected (429), unavailable (502, 503, 504) and failures without response, e.g. timeouts, are transient.
+ * Rejected and too large (413) requests are split.
+ *
+ * @author Claas Thiele
+ */
+class RetryPolicy {
+    private final MatchProperties.Retry retry;
+
+    RetryPolicy(MatchProperties.Retry retry) {
+        this.retry = retry;
+    }
+
+    /**
+     * @param attempt the attempt failed, starting with 1
+     */
+    boolean canRetry(int attempt) {
+        return attempt < retry.getMaxAttempts();
+    }
+
+    /**
+     * The wait before the next attempt is exponentially growing with the attempt, randomized to half to full of the backoff.
+     *
+     * @return completed after waiting before the next attempt, without blocking a thread
+     */
+    CompletableFuture<Void> backoff(int attempt) {
+        long backoff = Math.min(retry.getMaxBackoff().toMillis(), retry.getInitialBackoff().toMillis() << Math.min(attempt - 1, 20));
+        long delay = ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1);
+        return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * @return the HTTP status of the failure, -1 if there is no response
+     */
+    static int status(Throwable failure) {
+        for(Throwable t = failure; t != null; t = t.getCause()) {
+            if(t instanceof OpenSearchException e) {
+                return e.status();
+            }
+            if(t instanceof ResponseException e) {
+                return e.getResponse().getStatusLine().getStatusCode();
+            }
+        }
+        return -1;
+    }
+
+    static boolean isTransient(int status, Throwable failure) {
+        if(status == -1) {
+            return failure instanceof IOException;
+        }
+        return isTransient(status);
+    }
+
+    static boolean isTransient(int status) {
+        return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+
+    static boolean isSplit(int status) {
+        return status == 413 || status == 429;
+    }
+}
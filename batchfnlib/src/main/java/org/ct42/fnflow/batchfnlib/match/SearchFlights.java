@@ -0,0 +1,95 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchfnlib.match;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the searches in flight, so a batch needing the matches of a search already sent by a concurrent batch
+ * waits for that search instead of sending it again.
+ * The owner of a search has to complete or fail it in any case, the waiting batches are completed with its result.
+ *
+ * @author Claas Thiele
+ */
+class SearchFlights {
+    private final ConcurrentHashMap<MatchRequestKey, Flight> flights = new ConcurrentHashMap<>();
+
+    /**
+     * @return <code>null</code> if the caller became the owner of the search and has to send it,
+     * otherwise the search in flight to wait for
+     */
+    Flight join(MatchRequestKey key) {
+        Flight own = new Flight();
+        while (true) {
+            Flight existing = flights.putIfAbsent(key, own);
+            if(existing == null) {
+                return null;
+            }
+            if(existing.addWaiter()) {
+                return existing;
+            }
+            flights.remove(key, existing); // completed, but not yet removed by its owner
+        }
+    }
+
+    /**
+     * Completes an owned search, the waiting batches get a copy of the matches shared between them.
+     */
+    void complete(MatchRequestKey key, ArrayNode matches) {
+        Flight flight = flights.get(key);
+        boolean waited = flight.close();
+        flights.remove(key, flight);
+        flight.result.complete(waited ? matches.deepCopy() : null);
+    }
+
+    void fail(MatchRequestKey key, Throwable error) {
+        Flight flight = flights.get(key);
+        flight.close();
+        flights.remove(key, flight);
+        flight.result.completeExceptionally(error);
+    }
+
+    static final class Flight {
+        private final CompletableFuture<ArrayNode> result = new CompletableFuture<>();
+        private int waiters;
+        private boolean closed;
+
+        private synchronized boolean addWaiter() {
+            if(closed) return false;
+            waiters++;
+            return true;
+        }
+
+        /**
+         * @return <code>true</code> if there are waiters for the result
+         */
+        private synchronized boolean close() {
+            closed = true;
+            return waiters > 0;
+        }
+
+        /**
+         * @return the matches shared by all waiters, not to be modified
+         */
+        CompletableFuture<ArrayNode> result() {
+            return result;
+        }
+    }
+}
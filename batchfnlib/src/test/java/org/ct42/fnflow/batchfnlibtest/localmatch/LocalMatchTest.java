@@ -0,0 +1,143 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchfnlibtest.localmatch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.ct42.fnflow.batchdlt.BatchElement;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.function.context.FunctionCatalog;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.awaitility.Awaitility.await;
+
+/**
+ * @author Claas Thiele
+ */
+@SpringBootTest
+@EmbeddedKafka(bootstrapServersProperty = "spring.cloud.stream.kafka.binder.brokers", partitions = 1, topics = "entities")
+@TestPropertySource(properties = {
+        "cfgfns.LocalMatch.testlocalmatch.topic=entities",
+        "cfgfns.LocalMatch.testlocalmatch.keys.id.entity=/id",
+        "cfgfns.LocalMatch.testlocalmatch.keys.id.input=/ids",
+        "cfgfns.LocalMatch.testlocalmatch.keys.name.entity=/name",
+        "cfgfns.LocalMatch.testlocalmatch.keys.name.input=/name",
+        "cfgfns.LocalMatch.testlocalmatch.keys.name.mode=NORMALIZED",
+        "cfgfns.LocalMatch.testlocalmatch.keys.city.entity=/city",
+        "cfgfns.LocalMatch.testlocalmatch.keys.city.input=/city",
+        "cfgfns.LocalMatch.testlocalmatch.keys.city.mode=PREFIX",
+        "cfgfns.LocalMatch.testlocalmatch.keys.street.entity=/street",
+        "cfgfns.LocalMatch.testlocalmatch.keys.street.input=/street",
+        "cfgfns.LocalMatch.testlocalmatch.keys.street.mode=TOKEN"
+})
+public class LocalMatchTest {
+    @Autowired
+    private FunctionCatalog functionCatalog;
+
+    @Autowired
+    private EmbeddedKafkaBroker embeddedKafka;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    @DisplayName("""
+            GIVEN entities written to the entity topic after the startup
+            WHEN the 'LocalMatch' function is executed
+            THEN the inputs are matched by exact, normalized, prefix and token lookups in the shape of 'Match'
+            AND updated and removed entities are reflected
+            """)
+    public void testLocalMatch() throws Exception {
+        KafkaTemplate<String, String> template = new KafkaTemplate<>(
+                new DefaultKafkaProducerFactory<>(KafkaTestUtils.producerProps(embeddedKafka.getBrokersAsString())));
+        template.setDefaultTopic("entities");
+        template.sendDefault("E1", """
+                {"id": "ID1", "name": "Müller GmbH", "city": "Hamburg", "street": "Große Elbstraße 12"}""");
+        template.sendDefault("E2", """
+                {"id": "ID2", "name": "Schmidt AG", "city": "Hamm", "street": "Am Markt 3"}""");
+        template.sendDefault("E3", """
+                {"id": "ID3", "name": "Meier KG", "city": "Berlin", "street": "Elbstraße 1"}""").get();
+
+        Function<List<BatchElement>, List<BatchElement>> fn = functionCatalog.lookup("testlocalmatch");
+        await().atMost(Duration.ofSeconds(30)).untilAsserted(() ->
+                then(fn.apply(List.of(element("{\"ids\": [\"ID3\"]}"))).getFirst().getOutput().at("/matches/0/id").asText())
+                        .isEqualTo("E3"));
+
+        List<BatchElement> result = fn.apply(List.of(
+                element("{\"ids\": [\"ID1\", \"ID2\"]}"),
+                element("{\"name\": \"  MULLER   gmbh \"}"),
+                element("{\"city\": \"ham\"}"),
+                element("{\"street\": \"elbstrasse\"}"),
+                element("{\"street\": \"Elbstraße 1\", \"city\": \"Berlin\"}"),
+                element("{\"name\": \"Unknown\"}")));
+
+        then(result).allSatisfy(e -> then(e.getError()).isNull());
+        then(ids(result.get(0))).containsExactly("E1", "E2");
+        then(result.get(0).getOutput().at("/input/ids/0").asText()).isEqualTo("ID1");
+        then(ids(result.get(1))).containsExactly("E1");
+        then(result.get(1).getOutput().at("/matches/0/source/city").asText()).isEqualTo("Hamburg");
+        then(ids(result.get(2))).containsExactlyInAnyOrder("E1", "E2");
+        then(ids(result.get(3))).isEmpty(); // token 'elbstraße' is not 'elbstrasse'
+        then(ids(result.get(4)).getFirst()).isEqualTo("E3");
+        then(result.get(4).getOutput().at("/matches/0/score").asDouble()).isEqualTo(3.0);
+        then(ids(result.get(4))).contains("E1");
+        then(ids(result.get(5))).isEmpty();
+
+        ((ObjectNode) result.get(1).getOutput().at("/matches/0/source")).put("city", "changed");
+        then(fn.apply(List.of(element("{\"name\": \"müller gmbh\"}"))).getFirst().getOutput().at("/matches/0/source/city").asText())
+                .isEqualTo("Hamburg");
+
+        template.sendDefault("E1", """
+                {"id": "ID1", "name": "Müller GmbH", "city": "Bremen", "street": "Große Elbstraße 12"}""");
+        template.sendDefault("E2", null).get();
+        await().atMost(Duration.ofSeconds(30)).untilAsserted(() -> {
+            then(ids(fn.apply(List.of(element("{\"ids\": [\"ID2\"]}"))).getFirst())).isEmpty();
+            then(ids(fn.apply(List.of(element("{\"city\": \"ham\"}"))).getFirst())).isEmpty();
+            then(ids(fn.apply(List.of(element("{\"city\": \"Bre\"}"))).getFirst())).containsExactly("E1");
+        });
+    }
+
+    private BatchElement element(String json) throws Exception {
+        return new BatchElement(objectMapper.readValue(json, JsonNode.class));
+    }
+
+    private static List<String> ids(BatchElement element) {
+        List<String> ids = new ArrayList<>();
+        element.getOutput().get("matches").forEach(match -> ids.add(match.get("id").asText()));
+        return ids;
+    }
+
+    @SpringBootApplication
+    @ComponentScan
+    protected static class TestConfiguration {}
+}
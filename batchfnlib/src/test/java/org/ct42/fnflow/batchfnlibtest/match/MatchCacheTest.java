@@ -0,0 +1,139 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchfnlibtest.match;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.ct42.fnflow.batchdlt.BatchElement;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.Refresh;
+import org.opensearch.client.opensearch._types.StoredScript;
+import org.opensearch.client.opensearch.core.DeleteRequest;
+import org.opensearch.client.opensearch.core.IndexRequest;
+import org.opensearch.client.opensearch.core.PutScriptRequest;
+import org.opensearch.testcontainers.OpensearchContainer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.function.context.FunctionCatalog;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+import java.util.function.Function;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * @author Claas Thiele
+ */
+@Testcontainers
+@SpringBootTest
+@TestPropertySource(properties = {
+        "cfgfns.Match.testcachematch.index=cacheindex",
+        "cfgfns.Match.testcachematch.template=cachetemplate",
+        "cfgfns.Match.testcachematch.paramsFromInput.ids=/text",
+        "cfgfns.Match.testcachematch.literalParams.field=id",
+        "cfgfns.Match.testcachematch.cache.enabled=true",
+        "cfgfns.Match.testcachematch.cache.ttl=10m"
+})
+public class MatchCacheTest {
+    @Container
+    static final OpensearchContainer<?> container = new OpensearchContainer<>("opensearchproject/opensearch:2.19.0");
+
+    @Autowired
+    private FunctionCatalog functionCatalog;
+
+    @Autowired
+    private OpenSearchClient client;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @DynamicPropertySource
+    static void opensearchProperties(DynamicPropertyRegistry registry) {
+        registry.add("opensearch.uris", container::getHttpHostAddress);
+    }
+
+    @Test
+    @DisplayName("""
+            GIVEN a 'Match' function with the cache enabled
+            AND an index with a document matched by the input
+            WHEN the 'Match' function is executed for the input
+            AND the document is deleted
+            AND the 'Match' function is executed again for an equal input
+            THEN the second output will contain the cached match
+            AND the cache hit is counted
+            """)
+    public void testMatchCache() throws Exception {
+        client.putScript(new PutScriptRequest.Builder()
+                .id("cachetemplate")
+                .script(new StoredScript.Builder()
+                        .lang("mustache")
+                        .source("""
+                                {
+                                  "query": {
+                                    "terms":{
+                                      "{{field}}": {{#toJson}}ids{{/toJson}}
+                                    }
+                                  }
+                                }""")
+                        .build())
+                .build());
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        client.index(new IndexRequest.Builder<JsonNode>()
+                .index("cacheindex")
+                .id("doc1")
+                .document(objectMapper.readValue("{\"id\": \"ID1\"}", JsonNode.class))
+                .refresh(Refresh.True)
+                .build());
+
+        Function<List<BatchElement>, List<BatchElement>> fn = functionCatalog.lookup("testcachematch");
+        List<BatchElement> first = fn.apply(List.of(new BatchElement(objectMapper.readValue("{\"text\": [\"ID1\"]}", JsonNode.class))));
+        then(first.getFirst().getOutput().at("/matches/0/id").asText()).isEqualTo("doc1");
+
+        client.delete(new DeleteRequest.Builder().index("cacheindex").id("doc1").refresh(Refresh.True).build());
+
+        List<BatchElement> second = fn.apply(List.of(new BatchElement(objectMapper.readValue("{\"text\": [\"ID1\"], \"other\": 1}", JsonNode.class))));
+        then(second).hasSize(1);
+        then(second.getFirst().getOutput().at("/matches/0/id").asText()).isEqualTo("doc1");
+        then(second.getFirst().getOutput().at("/matches/0/source/id").asText()).isEqualTo("ID1");
+        then(second.getFirst().getOutput().at("/input/other").asInt()).isEqualTo(1);
+
+        then(meterRegistry.get("cache.gets").tags("cache", "testcachematch", "result", "hit").functionCounter().count()).isEqualTo(1.0);
+        then(meterRegistry.get("cache.gets").tags("cache", "testcachematch", "result", "miss").functionCounter().count()).isEqualTo(1.0);
+    }
+
+    @SpringBootApplication
+    @ComponentScan
+    protected static class TestConfiguration {
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+}
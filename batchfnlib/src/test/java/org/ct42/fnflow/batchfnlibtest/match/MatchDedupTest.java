@@ -0,0 +1,144 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchfnlibtest.match;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.ct42.fnflow.batchdlt.BatchElement;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.Refresh;
+import org.opensearch.client.opensearch._types.StoredScript;
+import org.opensearch.client.opensearch.core.IndexRequest;
+import org.opensearch.client.opensearch.core.PutScriptRequest;
+import org.opensearch.testcontainers.OpensearchContainer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.function.context.FunctionCatalog;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * @author Claas Thiele
+ */
+@Testcontainers
+@SpringBootTest
+@TestPropertySource(properties = {
+        "cfgfns.Match.testdedupmatch.index=dedupindex",
+        "cfgfns.Match.testdedupmatch.template=deduptemplate",
+        "cfgfns.Match.testdedupmatch.paramsFromInput.ids=/text",
+        "cfgfns.Match.testdedupmatch.literalParams.field=id"
+})
+public class MatchDedupTest {
+    @Container
+    static final OpensearchContainer<?> container = new OpensearchContainer<>("opensearchproject/opensearch:2.19.0");
+
+    @Autowired
+    private FunctionCatalog functionCatalog;
+
+    @Autowired
+    private OpenSearchClient client;
+
+    @DynamicPropertySource
+    static void opensearchProperties(DynamicPropertyRegistry registry) {
+        registry.add("opensearch.uris", container::getHttpHostAddress);
+    }
+
+    @Test
+    @DisplayName("""
+            GIVEN an index with two documents
+            AND batches with several inputs resulting to the same search
+            WHEN the 'Match' function is executed for the batches concurrently
+            THEN each input gets its own copy of the matches of its search
+            """)
+    public void testMatchDedup() throws Exception {
+        client.putScript(new PutScriptRequest.Builder()
+                .id("deduptemplate")
+                .script(new StoredScript.Builder()
+                        .lang("mustache")
+                        .source("""
+                                {
+                                  "query": {
+                                    "terms":{
+                                      "{{field}}": {{#toJson}}ids{{/toJson}}
+                                    }
+                                  }
+                                }""")
+                        .build())
+                .build());
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        for (String id : List.of("ID1", "ID2")) {
+            client.index(new IndexRequest.Builder<JsonNode>()
+                    .index("dedupindex")
+                    .id("doc-" + id)
+                    .document(objectMapper.readValue("{\"id\": \"" + id + "\"}", JsonNode.class))
+                    .refresh(Refresh.True)
+                    .build());
+        }
+
+        Function<List<BatchElement>, List<BatchElement>> fn = functionCatalog.lookup("testdedupmatch");
+        Callable<List<BatchElement>> batch = () -> fn.apply(List.of(
+                new BatchElement(objectMapper.readValue("{\"text\": [\"ID1\"], \"n\": 0}", JsonNode.class)),
+                new BatchElement(objectMapper.readValue("{\"text\": [\"ID2\"], \"n\": 1}", JsonNode.class)),
+                new BatchElement(objectMapper.readValue("{\"text\": [\"ID1\"], \"n\": 2}", JsonNode.class))));
+
+        List<List<BatchElement>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+            List<Future<List<BatchElement>>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(batch));
+            }
+            for (Future<List<BatchElement>> future : futures) {
+                results.add(future.get());
+            }
+        }
+
+        for (List<BatchElement> result : results) {
+            then(result).hasSize(3);
+            then(result).allSatisfy(e -> then(e.getError()).isNull());
+            then(result.get(0).getOutput().at("/matches/0/id").asText()).isEqualTo("doc-ID1");
+            then(result.get(1).getOutput().at("/matches/0/id").asText()).isEqualTo("doc-ID2");
+            then(result.get(2).getOutput().at("/matches/0/id").asText()).isEqualTo("doc-ID1");
+            then(result.get(2).getOutput().at("/input/n").asInt()).isEqualTo(2);
+
+            ((ObjectNode) result.get(0).getOutput().at("/matches/0")).put("id", "changed");
+            then(result.get(2).getOutput().at("/matches/0/id").asText()).isEqualTo("doc-ID1");
+        }
+    }
+
+    @SpringBootApplication
+    @ComponentScan
+    protected static class TestConfiguration {}
+}
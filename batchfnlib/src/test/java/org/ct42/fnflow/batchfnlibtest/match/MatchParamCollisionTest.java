@@ -0,0 +1,48 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchfnlibtest.match;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.annotation.ComponentScan;
+
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+
+/**
+ * @author Claas Thiele
+ */
+public class MatchParamCollisionTest {
+    @Test
+    void testFilterParamConfiguredAsLiteralParamFailsStartup() {
+        thenThrownBy(() -> new SpringApplicationBuilder(TestConfiguration.class)
+                .web(WebApplicationType.NONE)
+                .properties(
+                        "cfgfns.Match.testcollisionmatch.index=collisionindex",
+                        "cfgfns.Match.testcollisionmatch.template=collisiontemplate",
+                        "cfgfns.Match.testcollisionmatch.size=5",
+                        "cfgfns.Match.testcollisionmatch.literalParams.size=10")
+                .run()
+                .close())
+                .hasStackTraceContaining("Param size of testcollisionmatch is set by the property of the same name");
+    }
+
+    @SpringBootApplication
+    @ComponentScan
+    protected static class TestConfiguration {}
+}
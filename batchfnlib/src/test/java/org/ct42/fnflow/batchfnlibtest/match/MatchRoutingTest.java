@@ -0,0 +1,157 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchfnlibtest.match;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.HttpHost;
+import org.ct42.fnflow.batchdlt.BatchElement;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.opensearch.client.Request;
+import org.opensearch.client.RestClient;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.Refresh;
+import org.opensearch.client.opensearch._types.StoredScript;
+import org.opensearch.client.opensearch.core.IndexRequest;
+import org.opensearch.client.opensearch.core.PutScriptRequest;
+import org.opensearch.testcontainers.OpensearchContainer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.function.context.FunctionCatalog;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * @author Claas Thiele
+ */
+@Testcontainers
+@SpringBootTest
+@TestPropertySource(properties = {
+        "cfgfns.Match.testroutingmatch.index=routingindex",
+        "cfgfns.Match.testroutingmatch.template=routingtemplate",
+        "cfgfns.Match.testroutingmatch.paramsFromInput.ids=/text",
+        "cfgfns.Match.testroutingmatch.literalParams.field=id",
+        "cfgfns.Match.testroutingmatch.routing=/tenant",
+        "cfgfns.Match.testroutingmatch.preference=_local"
+})
+public class MatchRoutingTest {
+    private static final List<String> TENANTS = List.of("a", "b", "c", "d", "e", "f", "g", "h", "i", "j");
+
+    @Container
+    static final OpensearchContainer<?> container = new OpensearchContainer<>("opensearchproject/opensearch:2.19.0");
+
+    @Autowired
+    private FunctionCatalog functionCatalog;
+
+    @Autowired
+    private OpenSearchClient client;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @DynamicPropertySource
+    static void opensearchProperties(DynamicPropertyRegistry registry) {
+        registry.add("opensearch.uris", container::getHttpHostAddress);
+    }
+
+    @Test
+    @DisplayName("""
+            GIVEN an index with 4 shards and one document per tenant, indexed with the tenant as routing
+            AND inputs with the same ids but different tenants
+            WHEN the 'Match' function is executed with routing by the tenant of the input
+            THEN each input is searched only on the shard of its tenant
+            AND inputs without tenant are searched on all shards
+            """)
+    public void testMatchRouting() throws Exception {
+        client.putScript(new PutScriptRequest.Builder()
+                .id("routingtemplate")
+                .script(new StoredScript.Builder()
+                        .lang("mustache")
+                        .source("""
+                                {
+                                  "size": 100,
+                                  "query": {
+                                    "terms":{
+                                      "{{field}}": {{#toJson}}ids{{/toJson}}
+                                    }
+                                  }
+                                }""")
+                        .build())
+                .build());
+
+        try (RestClient restClient = RestClient.builder(HttpHost.create(container.getHttpHostAddress())).build()) {
+            Request createIndex = new Request("PUT", "/routingindex");
+            createIndex.setJsonEntity("""
+                    {"settings": {"number_of_shards": 4, "number_of_replicas": 0}}""");
+            restClient.performRequest(createIndex);
+        }
+        for (String tenant : TENANTS) {
+            client.index(new IndexRequest.Builder<JsonNode>()
+                    .index("routingindex")
+                    .id("doc-" + tenant)
+                    .routing(tenant)
+                    .document(objectMapper.readValue("{\"id\": \"ID1\", \"tenant\": \"" + tenant + "\"}", JsonNode.class))
+                    .refresh(Refresh.True)
+                    .build());
+        }
+
+        Function<List<BatchElement>, List<BatchElement>> fn = functionCatalog.lookup("testroutingmatch");
+        List<BatchElement> result = fn.apply(List.of(
+                element("{\"text\": [\"ID1\"], \"tenant\": \"a\"}"),
+                element("{\"text\": [\"ID1\"], \"tenant\": \"b\"}"),
+                element("{\"text\": [\"ID1\"]}"),
+                element("{\"text\": [\"ID1\"], \"tenant\": [\"a\", \"b\"]}")));
+
+        then(result).allSatisfy(e -> then(e.getError()).isNull());
+        then(tenants(result.get(2))).containsExactlyInAnyOrderElementsOf(TENANTS);
+        for (int i : List.of(0, 1, 3)) {
+            List<String> routed = tenants(result.get(i));
+            then(routed).hasSizeLessThan(TENANTS.size()); // documents on other shards are not searched
+            then(routed).allSatisfy(tenant -> then(TENANTS).contains(tenant));
+        }
+        then(tenants(result.get(0))).contains("a");
+        then(tenants(result.get(1))).contains("b");
+        then(tenants(result.get(3))).contains("a", "b")
+                .containsAll(tenants(result.get(0)))
+                .containsAll(tenants(result.get(1)));
+    }
+
+    private BatchElement element(String json) throws Exception {
+        return new BatchElement(objectMapper.readValue(json, JsonNode.class));
+    }
+
+    private static List<String> tenants(BatchElement element) {
+        List<String> tenants = new ArrayList<>();
+        element.getOutput().get("matches").forEach(match -> tenants.add(match.at("/source/tenant").asText()));
+        return tenants;
+    }
+
+    @SpringBootApplication
+    @ComponentScan
+    protected static class TestConfiguration {}
+}
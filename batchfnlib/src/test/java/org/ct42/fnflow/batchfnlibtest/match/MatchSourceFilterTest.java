@@ -0,0 +1,133 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchfnlibtest.match;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ct42.fnflow.batchdlt.BatchElement;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.Refresh;
+import org.opensearch.client.opensearch._types.StoredScript;
+import org.opensearch.client.opensearch.core.IndexRequest;
+import org.opensearch.client.opensearch.core.PutScriptRequest;
+import org.opensearch.testcontainers.OpensearchContainer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.function.context.FunctionCatalog;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+import java.util.function.Function;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * @author Claas Thiele
+ */
+@Testcontainers
+@SpringBootTest
+@TestPropertySource(properties = {
+        "cfgfns.Match.testfiltermatch.index=filterindex",
+        "cfgfns.Match.testfiltermatch.template=filtertemplate",
+        "cfgfns.Match.testfiltermatch.paramsFromInput.ids=/text",
+        "cfgfns.Match.testfiltermatch.sourceIncludes=id,name",
+        "cfgfns.Match.testfiltermatch.size=2",
+        "cfgfns.Match.testfiltermatch.minScore=0.5"
+})
+public class MatchSourceFilterTest {
+    @Container
+    static final OpensearchContainer<?> container = new OpensearchContainer<>("opensearchproject/opensearch:2.19.0");
+
+    @Autowired
+    private FunctionCatalog functionCatalog;
+
+    @Autowired
+    private OpenSearchClient client;
+
+    @DynamicPropertySource
+    static void opensearchProperties(DynamicPropertyRegistry registry) {
+        registry.add("opensearch.uris", container::getHttpHostAddress);
+    }
+
+    @Test
+    @DisplayName("""
+            GIVEN a search template applying the source filter, size and minimum score params
+            AND an index with three large documents matched by the input
+            WHEN the 'Match' function is executed with source includes and a size of two
+            THEN the output will contain two matches
+            AND the matches contain the included fields only
+            """)
+    public void testMatchSourceFilter() throws Exception {
+        client.putScript(new PutScriptRequest.Builder()
+                .id("filtertemplate")
+                .script(new StoredScript.Builder()
+                        .lang("mustache")
+                        .source("""
+                                {
+                                  "_source": {
+                                    "includes": {{#toJson}}sourceIncludes{{/toJson}}
+                                  },
+                                  "size": {{size}},
+                                  "min_score": {{minScore}},
+                                  "query": {
+                                    "terms":{
+                                      "id": {{#toJson}}ids{{/toJson}}
+                                    }
+                                  }
+                                }""")
+                        .build())
+                .build());
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        for (int i = 1; i <= 3; i++) {
+            client.index(new IndexRequest.Builder<JsonNode>()
+                    .index("filterindex")
+                    .id("doc" + i)
+                    .document(objectMapper.readValue("""
+                            {"id": "ID%d", "name": "Name %d", "payload": "%s"}""".formatted(i, i, "x".repeat(10000)), JsonNode.class))
+                    .refresh(Refresh.True)
+                    .build());
+        }
+
+        Function<List<BatchElement>, List<BatchElement>> fn = functionCatalog.lookup("testfiltermatch");
+        List<BatchElement> result = fn.apply(List.of(new BatchElement(objectMapper.readValue("""
+                {"text": ["ID1", "ID2", "ID3"]}""", JsonNode.class))));
+
+        then(result).hasSize(1);
+        then(result.getFirst().getError()).isNull();
+        JsonNode matches = result.getFirst().getOutput().at("/matches");
+        then(matches.size()).isEqualTo(2);
+        for (JsonNode match : matches) {
+            then(match.at("/source/id").isTextual()).isTrue();
+            then(match.at("/source/name").isTextual()).isTrue();
+            then(match.at("/source/payload").isMissingNode()).isTrue();
+            then(match.at("/score").asDouble()).isGreaterThanOrEqualTo(0.5);
+        }
+    }
+
+    @SpringBootApplication
+    @ComponentScan
+    protected static class TestConfiguration {}
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.batchfnlibtest.matchretry;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ct42.fnflow.batchdlt.BatchElement;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.opensearch.client.opensearch.OpenSearchAsyncClient;
+import org.opensearch.client.opensearch.OpenSearchClient;
+import org.opensearch.client.opensearch._types.ErrorResponse;
+import org.opensearch.client.opensearch._types.OpenSearchException;
+import org.opensearch.client.opensearch._types.Refresh;
+import org.opensearch.client.opensearch._types.StoredScript;
+import org.opensearch.client.opensearch.core.IndexRequest;
+import org.opensearch.client.opensearch.core.MsearchTemplateRequest;
+import org.opensearch.client.opensearch.core.MsearchTemplateResponse;
+import org.opensearch.client.opensearch.core.PutScriptRequest;
+import org.opensearch.testcontainers.OpensearchContainer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.function.context.FunctionCatalog;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.TestPropertySource;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import static org.assertj.core.api.BDDAssertions.then;
+
+/**
+ * @author Claas Thiele
+ */
+@Testcontainers
+@SpringBootTest
+@TestPropertySource(properties = {
+        "cfgfns.Match.testretrymatch.index=retryindex",
+        "cfgfns.Match.testretrymatch.template=retrytemplate",
+        "cfgfns.Match.testretrymatch.paramsFromInput.ids=/text",
+        "cfgfns.Match.testretrymatch.literalParams.field=id",
+        "cfgfns.Match.testretrymatch.retry.initialBackoff=10ms"
+})
+public class MatchRetryTest {
+    @Container
+    static final OpensearchContainer<?> container = new OpensearchContainer<>("opensearchproject/opensearch:2.19.0");
+
+    private static final List<Integer> SEARCHES = new CopyOnWriteArrayList<>();
+    private static final Queue<Exception> FAILURES = new ConcurrentLinkedQueue<>();
+
+    @Autowired
+    private FunctionCatalog functionCatalog;
+
+    @Autowired
+    private OpenSearchClient client;
+
+    @DynamicPropertySource
+    static void opensearchProperties(DynamicPropertyRegistry registry) {
+        registry.add("opensearch.uris", container::getHttpHostAddress);
+    }
+
+    @Test
+    @DisplayName("""
+            GIVEN an index with four documents
+            AND a batch of four inputs
+            WHEN the 'Match' function is executed
+            AND the first request is rejected
+            AND the following request fails with an IO error
+            THEN the batch is split in half
+            AND the failed half is retried
+            AND all inputs get their matches
+            AND a request failing with a bad request is not retried
+            """)
+    public void testMatchRetry() throws Exception {
+        client.putScript(new PutScriptRequest.Builder()
+                .id("retrytemplate")
+                .script(new StoredScript.Builder()
+                        .lang("mustache")
+                        .source("""
+                                {
+                                  "query": {
+                                    "terms":{
+                                      "{{field}}": {{#toJson}}ids{{/toJson}}
+                                    }
+                                  }
+                                }""")
+                        .build())
+                .build());
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<BatchElement> batch = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            client.index(new IndexRequest.Builder<JsonNode>()
+                    .index("retryindex")
+                    .id("doc" + i)
+                    .document(objectMapper.readValue("{\"id\": \"ID" + i + "\"}", JsonNode.class))
+                    .refresh(Refresh.True)
+                    .build());
+            batch.add(new BatchElement(objectMapper.readValue("{\"text\": [\"ID" + i + "\"]}", JsonNode.class)));
+        }
+
+        Function<List<BatchElement>, List<BatchElement>> fn = functionCatalog.lookup("testretrymatch");
+        SEARCHES.clear();
+        FAILURES.add(failure(429));
+        FAILURES.add(new IOException("Connection reset"));
+        List<BatchElement> result = fn.apply(batch);
+
+        then(SEARCHES).containsExactly(4, 2, 2, 2);
+        then(result).hasSize(4);
+        for (int i = 0; i < 4; i++) {
+            then(result.get(i).getError()).isNull();
+            then(result.get(i).getOutput().at("/matches/0/id").asText()).isEqualTo("doc" + (i + 1));
+        }
+
+        SEARCHES.clear();
+        FAILURES.add(failure(400));
+        List<BatchElement> failed = fn.apply(List.of(new BatchElement(objectMapper.readValue("{\"text\": [\"ID1\"]}", JsonNode.class))));
+        then(SEARCHES).containsExactly(1);
+        then(failed.getFirst().getOutput()).isNull();
+        then(failed.getFirst().getError()).isInstanceOf(OpenSearchException.class);
+    }
+
+    private static OpenSearchException failure(int status) {
+        return new OpenSearchException(ErrorResponse.of(r -> r
+                .status(status)
+                .error(e -> e.type("test_exception").reason("Failure " + status))));
+    }
+
+    @SpringBootApplication
+    @ComponentScan
+    protected static class TestConfiguration {
+        @Bean
+        OpenSearchAsyncClient flakyAsyncClient(OpenSearchClient client) {
+            return new FlakyAsyncClient(client);
+        }
+    }
+
+    /**
+     * Fails the multi search template requests with the queued failures, counting the searches per request.
+     */
+    protected static class FlakyAsyncClient extends OpenSearchAsyncClient {
+        FlakyAsyncClient(OpenSearchClient client) {
+            super(client._transport(), client._transportOptions());
+        }
+
+        @Override
+        public <TDocument> CompletableFuture<MsearchTemplateResponse<TDocument>> msearchTemplate(MsearchTemplateRequest request, Class<TDocument> tDocumentClass)
+                throws IOException, OpenSearchException {
+            SEARCHES.add(request.searchTemplates().size());
+            Exception failure = FAILURES.poll();
+            if (failure != null) {
+                return CompletableFuture.failedFuture(failure);
+            }
+            return super.msearchTemplate(request, tDocumentClass);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.fnapi;
+
+import com.fasterxml.jackson.core.JsonPointer;
+
+import java.util.Collection;
+
+/**
+ * Declares the locations in the input a function is reading or writing values at.
+ * With selective parsing enabled and all functions of the definition declaring their pointers,
+ * only the top level fields of the input reached by the pointers are parsed into a tree.
+ * The other fields are passed through as raw Json, they are not visible to the functions.
+ * A function inspecting its whole input must not implement this interface.
+ *
+ * @author Claas Thiele
+ */
+public interface PointerAware {
+    /**
+     * @return the pointers into the input the function reads or writes values at,
+     * subtrees passed to the output without being inspected need not be declared
+     */
+    Collection<JsonPointer> pointers();
+
+    /**
+     * Maps a location in the output of the function back to the location in the input the value has been taken from.
+     * By default, the output is the input, possibly modified.
+     *
+     * @return the location in the input, <code>null</code> if the value is not taken from the input
+     */
+    default JsonPointer inputLocation(JsonPointer outputLocation) {
+        return outputLocation;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.ct42.fnflow.batchdlt.BatchElement;
+import org.ct42.fnflow.fnapi.NonMutating;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Functions used as pipeline stages in the benchmarks.
+ *
+ * @author Claas Thiele
+ */
+public final class BenchFunctions {
+    private BenchFunctions() {}
+
+    /**
+     * Modifies one field, like a normalizer does.
+     */
+    public static class Trim implements Function<JsonNode, JsonNode> {
+        @Override
+        public JsonNode apply(JsonNode input) {
+            ((ObjectNode) input).put("text", input.path("text").asText().strip());
+            return input;
+        }
+    }
+
+    /**
+     * Reads one field only, like a validator does.
+     */
+    public static class Validate implements Function<JsonNode, JsonNode>, NonMutating {
+        @Override
+        public JsonNode apply(JsonNode input) {
+            if (input.path("id").isMissingNode()) {
+                throw new IllegalArgumentException("no id");
+            }
+            return input;
+        }
+    }
+
+    /**
+     * Wraps every input into a result object, like Match does without the remote call.
+     */
+    public static class Batch implements Function<List<BatchElement>, List<BatchElement>> {
+        @Override
+        public List<BatchElement> apply(List<BatchElement> batch) {
+            batch.forEach(e -> {
+                ObjectNode result = JsonNodeFactory.instance.objectNode();
+                result.set("input", e.getInput());
+                result.putArray("matches");
+                e.processWithOutput(result);
+            });
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.ct42.fnflow.batchdlt.ComposedFunction;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.messaging.Message;
+import reactor.core.publisher.Flux;
+import reactor.util.function.Tuple2;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the full composed function for different pipeline shapes, fed from an in-memory Flux.
+ * Reported ops/s are messages per second, <code>gc.alloc.rate.norm</code> is bytes allocated per message.
+ *
+ * @author Claas Thiele
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ComposedFunctionBenchmark {
+    static final int MESSAGES = 1000;
+
+    @Param({"validate", "trim|validate", "trim|validate|batch|trim", "trim+validate|batch"})
+    String definition;
+
+    @Param({"1024", "5120", "20480"})
+    int payloadSize;
+
+    @Param({"1", "4"})
+    int parallelism;
+
+    private List<Message<byte[]>> messages;
+    private GenericApplicationContext ctx;
+    private ComposedFunction composedFunction;
+
+    @Setup
+    public void setup() {
+        messages = Payloads.messages(MESSAGES, payloadSize);
+        ctx = new GenericApplicationContext();
+        ctx.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", Map.of(
+                "org.ct42.fnflow.function.definition", definition,
+                "org.ct42.fnflow.parallelism", parallelism
+        )));
+        ctx.registerBean("trim", BenchFunctions.Trim.class);
+        ctx.registerBean("validate", BenchFunctions.Validate.class);
+        ctx.registerBean("batch", BenchFunctions.Batch.class);
+        ctx.refresh();
+        composedFunction = new ComposedFunction(ctx, new SimpleMeterRegistry());
+        composedFunction.afterSingletonsInstantiated();
+    }
+
+    @TearDown
+    public void tearDown() {
+        composedFunction.destroy();
+        ctx.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void pipeline(Blackhole bh) {
+        Tuple2<Flux<Message<byte[]>>, Flux<Message<byte[]>>> out = composedFunction.apply(Flux.fromIterable(messages));
+        Flux.merge(out.getT1(), out.getT2())
+                .doOnNext(bh::consume)
+                .blockLast();
+    }
+}
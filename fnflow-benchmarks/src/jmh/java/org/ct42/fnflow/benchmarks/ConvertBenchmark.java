@@ -0,0 +1,112 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.benchmarks;
+
+import org.ct42.fnflow.batchdlt.InMsg2Header;
+import org.ct42.fnflow.batchdlt.JsonPayload;
+import org.ct42.fnflow.batchdlt.MessageTracing;
+import org.ct42.fnflow.batchdlt.OutConvert2ByteArray;
+import org.ct42.fnflow.batchdlt.PayloadCodec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of raw input messages into payloads and back.
+ * Reported ops/s are messages per second, <code>gc.alloc.rate.norm</code> is bytes allocated per message.
+ *
+ * @author Claas Thiele
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ConvertBenchmark {
+    static final int MESSAGES = 1000;
+
+    @Param({"1024", "5120", "20480"})
+    int payloadSize;
+
+    private List<Message<byte[]>> messages;
+    private List<Message<byte[]>> smileMessages;
+
+    @Setup
+    public void setup() throws IOException {
+        messages = Payloads.messages(MESSAGES, payloadSize);
+        smileMessages = new ArrayList<>(messages.size());
+        for (Message<byte[]> message : messages) {
+            smileMessages.add(MessageBuilder.withPayload(PayloadCodec.SMILE.write(PayloadCodec.JSON.read(message.getPayload())))
+                    .copyHeaders(message.getHeaders())
+                    .build());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void passThrough(Blackhole bh) {
+        new OutConvert2ByteArray()
+                .apply(new InMsg2Header().apply(Flux.fromIterable(messages)))
+                .doOnNext(bh::consume)
+                .blockLast();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void parseAndWrite(Blackhole bh) {
+        new OutConvert2ByteArray()
+                .apply(new InMsg2Header().apply(Flux.fromIterable(messages))
+                        .map(e -> {
+                            e.setPayload(JsonPayload.ofNode(e.getPayload().getNode()));
+                            return e;
+                        }))
+                .doOnNext(bh::consume)
+                .blockLast();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void smileParseAndWrite(Blackhole bh) {
+        new OutConvert2ByteArray(PayloadCodec.SMILE, null)
+                .apply(new InMsg2Header(PayloadCodec.SMILE, null, null, MessageTracing.DISABLED).apply(Flux.fromIterable(smileMessages))
+                        .map(e -> {
+                            e.setPayload(JsonPayload.ofNode(e.getPayload().getNode()));
+                            return e;
+                        }))
+                .doOnNext(bh::consume)
+                .blockLast();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void selectiveParseAndWrite(Blackhole bh) {
+        new OutConvert2ByteArray()
+                .apply(new InMsg2Header(PayloadCodec.JSON, Set.of("id"), null, MessageTracing.DISABLED).apply(Flux.fromIterable(messages))
+                        .map(e -> {
+                            e.setPayload(JsonPayload.ofNode(e.getPayload().getNode()));
+                            return e;
+                        }))
+                .doOnNext(bh::consume)
+                .blockLast();
+    }
+}
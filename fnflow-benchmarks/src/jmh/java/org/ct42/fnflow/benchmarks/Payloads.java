@@ -0,0 +1,67 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.benchmarks;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates Json test messages of a given size.
+ *
+ * @author Claas Thiele
+ */
+public final class Payloads {
+    private Payloads() {}
+
+    /**
+     * @param index used to make the document unique
+     * @param size approximate size of the serialized document in bytes
+     * @return a Json document with an id, a text and an array of attribute objects filling it up to the given size
+     */
+    public static byte[] document(int index, int size) {
+        ObjectNode doc = JsonNodeFactory.instance.objectNode();
+        doc.put("id", "ID" + index);
+        doc.put("text", "  Text " + index + "  ");
+        ArrayNode attributes = doc.putArray("attributes");
+        int i = 0;
+        while (doc.toString().length() < size) {
+            ObjectNode attribute = attributes.addObject();
+            attribute.put("name", "attribute" + i);
+            attribute.put("value", "value of attribute " + i + " of document " + index);
+            attribute.put("score", i * 0.5);
+            i++;
+        }
+        return doc.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static List<Message<byte[]>> messages(int count, int size) {
+        List<Message<byte[]>> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(MessageBuilder.withPayload(document(i, size))
+                    .setHeader("kafka_receivedMessageKey", ("ID" + i).getBytes(StandardCharsets.UTF_8))
+                    .build());
+        }
+        return messages;
+    }
+}
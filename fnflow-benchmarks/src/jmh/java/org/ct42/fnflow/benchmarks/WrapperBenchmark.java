@@ -0,0 +1,97 @@
+/*
+ * Copyright 2025-2025 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ct42.fnflow.benchmarks;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.ct42.fnflow.batchdlt.BatchFnWrapper;
+import org.ct42.fnflow.batchdlt.BatchMetrics;
+import org.ct42.fnflow.batchdlt.BatchProperties;
+import org.ct42.fnflow.batchdlt.Envelope;
+import org.ct42.fnflow.batchdlt.ErrorChannel;
+import org.ct42.fnflow.batchdlt.FunctionWrapper;
+import org.ct42.fnflow.batchdlt.InMsg2Header;
+import org.ct42.fnflow.batchdlt.MultiFnWrapper;
+import org.ct42.fnflow.batchdlt.StageMetrics;
+import org.ct42.fnflow.batchdlt.StagePredicate;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.messaging.Message;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Measures a single stage wrapper fed from an in-memory Flux.
+ * Reported ops/s are messages per second, <code>gc.alloc.rate.norm</code> is bytes allocated per message.
+ *
+ * @author Claas Thiele
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WrapperBenchmark {
+    static final int MESSAGES = 1000;
+
+    @Param({"function", "multiply", "multiply-parallel", "batch", "batch-concurrent"})
+    String wrapper;
+
+    @Param({"1024", "20480"})
+    int payloadSize;
+
+    private List<Message<byte[]>> messages;
+    private BiFunction<Flux<Envelope>, ErrorChannel, Flux<Envelope>> stage;
+    private MeterRegistry registry;
+
+    @Setup
+    public void setup() {
+        messages = Payloads.messages(MESSAGES, payloadSize);
+        registry = new SimpleMeterRegistry();
+        StageMetrics trimMetrics = new StageMetrics(registry, "trim", "Trim");
+        StageMetrics validateMetrics = new StageMetrics(registry, "validate", "Validate");
+        StageMetrics batchMetrics = new StageMetrics(registry, "batch", "Batch");
+        stage = switch (wrapper) {
+            case "function" -> new FunctionWrapper(new BenchFunctions.Trim(), trimMetrics);
+            case "multiply" -> new MultiFnWrapper(List.of(new BenchFunctions.Trim(), new BenchFunctions.Validate()),
+                    List.of(trimMetrics, validateMetrics));
+            case "multiply-parallel" -> new MultiFnWrapper(List.of(new BenchFunctions.Trim(), new BenchFunctions.Validate()),
+                    List.of(trimMetrics, validateMetrics), false, true, StagePredicate.ALWAYS);
+            case "batch" -> new BatchFnWrapper(new BenchFunctions.Batch(), batchProperties(1),
+                    batchMetrics, new BatchMetrics(registry, "batch", "Batch"));
+            case "batch-concurrent" -> new BatchFnWrapper(new BenchFunctions.Batch(), batchProperties(4),
+                    batchMetrics, new BatchMetrics(registry, "batch", "Batch"));
+            default -> throw new IllegalArgumentException("Unknown wrapper " + wrapper);
+        };
+    }
+
+    private static BatchProperties batchProperties(int concurrency) {
+        BatchProperties properties = new BatchProperties();
+        properties.setConcurrency(concurrency);
+        return properties;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void stage(Blackhole bh) {
+        stage.apply(new InMsg2Header().apply(Flux.fromIterable(messages)), new ErrorChannel(256, Duration.ofSeconds(10), registry))
+                .doOnNext(bh::consume)
+                .blockLast();
+    }
+}
@@ -16,10 +16,12 @@
 
 package org.ct42.fnflow.kafkaservice;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
 import lombok.RequiredArgsConstructor;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.kafka.clients.admin.*;
 import org.apache.kafka.clients.consumer.*;
@@ -29,11 +31,14 @@ import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.UnknownTopicOrPartitionException;
 import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
 import org.springframework.kafka.core.KafkaAdmin;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.ZonedDateTime;
@@ -42,12 +47,18 @@ import java.util.*;
 import java.util.concurrent.ExecutionException;
 
 /**
+ * Messages with a <code>contentType</code> header of a binary Json format (Smile or CBOR) are transcoded to Json for reading.
+ *
  * @author Claas Thiele
  * @author Sajjad Safaeian
  */
 @Service
 @RequiredArgsConstructor
 public class KafkaService {
+    private static final Map<String, ObjectMapper> BINARY_MAPPERS = Map.of(
+            "application/x-jackson-smile", new SmileMapper(),
+            "application/cbor", new CBORMapper());
+
     private final KafkaTemplate<String, String> kafkaTemplate;
     private final DefaultKafkaConsumerFactory<String, String> defaultKafkaConsumerFactory;
     private final KafkaAdmin kafkaAdmin;
@@ -156,7 +167,7 @@ public class KafkaService {
         final long toOffsetL = toOffset;
 
         ReadBatchDTO batch = new ReadBatchDTO();
-        List<ConsumerRecord<String, String>> records = receive(topicPartition, fromOffset, Duration.ofMillis(500));
+        List<ConsumerRecord<String, byte[]>> records = receive(topicPartition, fromOffset, Duration.ofMillis(500));
         batch.setMessages(records
             .stream()
             .filter(r -> r.offset() <= toOffsetL)
@@ -176,8 +187,8 @@ public class KafkaService {
             message.setHeaders(headers.toArray(new org.ct42.fnflow.kafkaservice.Header[0]));
 
             try {
-                message.setValue(objectMapper.readValue(r.value(), JsonNode.class));
-            } catch (JsonProcessingException e) {
+                message.setValue(valueMapper(r).readValue(r.value(), JsonNode.class));
+            } catch (IOException e) {
                 throw new IllegalStateException("Failed to parse value as Json", e);
             }
             return message;
@@ -185,6 +196,18 @@ public class KafkaService {
         return batch;
     }
 
+    /**
+     * @return the mapper for the content type of the record, the Json mapper if the header is missing or not binary
+     */
+    private ObjectMapper valueMapper(ConsumerRecord<String, byte[]> r) {
+        Header contentType = r.headers().lastHeader("contentType");
+        if(contentType == null || contentType.value() == null) {
+            return objectMapper;
+        }
+        String mimeType = StringUtils.substringBefore(new String(contentType.value(), StandardCharsets.UTF_8).replace("\"", ""), ";").trim();
+        return BINARY_MAPPERS.getOrDefault(mimeType.toLowerCase(Locale.ROOT), objectMapper);
+    }
+
     private long getDateOffset(String date, TopicPartition topicPartition, AdminClient adminClient) {
         long offset;
         long timestamp = ZonedDateTime.parse(date, DateTimeFormatter.ISO_ZONED_DATE_TIME).toInstant().toEpochMilli();
@@ -216,13 +239,15 @@ public class KafkaService {
         return offset;
     }
 
-    private List<ConsumerRecord<String, String>> receive(TopicPartition topicPartition, long from, Duration pollTimeout) {
+    private List<ConsumerRecord<String, byte[]>> receive(TopicPartition topicPartition, long from, Duration pollTimeout) {
         Properties props = new Properties();
         props.setProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "500");
-        try (Consumer<String, String> consumer = defaultKafkaConsumerFactory.createConsumer(null, null, null, props)) {
+        DefaultKafkaConsumerFactory<String, byte[]> consumerFactory = new DefaultKafkaConsumerFactory<>( // values might be binary
+                defaultKafkaConsumerFactory.getConfigurationProperties(), new StringDeserializer(), new ByteArrayDeserializer());
+        try (Consumer<String, byte[]> consumer = consumerFactory.createConsumer(null, null, null, props)) {
             consumer.assign(Collections.singletonList(topicPartition));
             consumer.seek(topicPartition, from);
-            ConsumerRecords<String, String> records = consumer.poll(pollTimeout);
+            ConsumerRecords<String, byte[]> records = consumer.poll(pollTimeout);
             return records.records(topicPartition);
         }
     }
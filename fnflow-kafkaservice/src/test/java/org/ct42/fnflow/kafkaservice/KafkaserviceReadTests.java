@@ -18,6 +18,11 @@ package org.ct42.fnflow.kafkaservice;
 
 import com.fasterxml.jackson.core.JsonPointer;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -32,13 +37,17 @@ import org.springframework.boot.testcontainers.service.connection.ServiceConnect
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.listener.KafkaMessageListenerContainer;
 import org.springframework.util.MultiValueMap;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
 import org.testcontainers.kafka.KafkaContainer;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -188,6 +197,22 @@ class KafkaserviceReadTests {
 		then(lastOffset).isEqualTo(509);
 	}
 
+	@Test
+	@DisplayName("read Smile encoded message as Json")
+	void testReadSmile() throws Exception {
+		KafkaTemplate<String, byte[]> binaryTemplate = new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(
+				Map.of("bootstrap.servers", kafkaContainer.getBootstrapServers()), new StringSerializer(), new ByteArraySerializer()));
+		byte[] smile = new SmileMapper().writeValueAsBytes(Map.of("name", "smile"));
+		binaryTemplate.send(new ProducerRecord<>("testsmiletopic", 0, "key0", smile,
+				List.of(new RecordHeader("contentType", "\"application/x-jackson-smile\"".getBytes(StandardCharsets.UTF_8))))).get();
+
+		ResponseEntity<ReadBatchDTO> batch = restTemplate.getForEntity("/testsmiletopic/0", ReadBatchDTO.class);
+		then(batch.getStatusCode().is2xxSuccessful()).isTrue();
+		ReadMessage[] messages = batch.getBody().getMessages();
+		then(messages).hasSize(1);
+		then(messages[0].getValue().toString()).isEqualTo("{\"name\":\"smile\"}");
+	}
+
 	@ParameterizedTest
 	@MethodSource("prepareTopicNotExistSamples")
 	void topicIsNotExistTest(String url, HttpMethod httpMethod) {
@@ -16,10 +16,19 @@
 
 package org.ct42.fnflow.fnflow_projector;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.util.MimeType;
 
 /**
+ * Input messages of the binary Json formats Smile and CBOR are read by their <code>contentType</code> header.
+ *
  * @author Claas Thiele
  */
 @SpringBootApplication
@@ -29,4 +38,19 @@ public class FnflowProjectorApplication {
 		SpringApplication.run(FnflowProjectorApplication.class, args);
 	}
 
+	@Bean
+	public MessageConverter smileMessageConverter() {
+		return binaryJsonConverter(new SmileMapper(), MimeType.valueOf("application/x-jackson-smile"));
+	}
+
+	@Bean
+	public MessageConverter cborMessageConverter() {
+		return binaryJsonConverter(new CBORMapper(), MimeType.valueOf("application/cbor"));
+	}
+
+	private static MessageConverter binaryJsonConverter(ObjectMapper mapper, MimeType mimeType) {
+		MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter(mimeType);
+		converter.setObjectMapper(mapper);
+		return converter;
+	}
 }
@@ -20,16 +20,21 @@ import com.fasterxml.jackson.core.JsonPointer;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.apache.commons.lang3.StringUtils;
 import org.ct42.fnflow.cfgfns.ConfigurableFunction;
+import org.ct42.fnflow.fnapi.NonMutating;
+import org.ct42.fnflow.fnapi.PointerAware;
 import org.ct42.fnflow.fnlib.validator.ValidationException;
 import org.springframework.stereotype.Component;
 
+import java.util.Collection;
+import java.util.List;
+
 /**
  * It is a function to check if an element in a JsonNode input object's specific path has a value.
  *
  * @author Sajjad Safaeian
  */
 @Component("hasValueValidator")
-public class HasValueValidator extends ConfigurableFunction<JsonNode, JsonNode, HasValueProperties> {
+public class HasValueValidator extends ConfigurableFunction<JsonNode, JsonNode, HasValueProperties> implements NonMutating, PointerAware {
 
     @Override
     public JsonNode apply(JsonNode input) {
@@ -68,4 +73,9 @@ public class HasValueValidator extends ConfigurableFunction<JsonNode, JsonNode,
 
         return input;
     }
+
+    @Override
+    public Collection<JsonPointer> pointers() {
+        return List.of(properties.getElementPath());
+    }
 }
\ No newline at end of file